@@ -0,0 +1,131 @@
+package com.kegmil.example.pcbook.serializer;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of exporting and importing a catalog of laptops, as one file per laptop with the
+ * original {@link Serializer} methods and as a single streamed file of records or JSON lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(SerializerBenchmark.LAPTOPS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializerBenchmark {
+
+  static final int LAPTOPS = 10000;
+
+  private final Serializer serializer = new Serializer();
+  private Laptop[] laptops;
+  private Path directory;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Generator generator = new Generator();
+    laptops = new Laptop[LAPTOPS];
+    for (int i = 0; i < LAPTOPS; i++) {
+      laptops[i] = generator.newLaptop();
+    }
+
+    directory = Files.createTempDirectory("serializer-benchmark");
+    for (int i = 0; i < LAPTOPS; i++) {
+      serializer.writeBinaryFile(laptops[i], file("read-" + i + ".bin"));
+    }
+    serializer.writeBinaryRecords(Arrays.asList(laptops).iterator(), file("read.bin"));
+    serializer.writeJSONLinesFile(Arrays.asList(laptops).iterator(), file("read.jsonl"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public void writePerFileBinary() throws IOException {
+    for (int i = 0; i < LAPTOPS; i++) {
+      serializer.writeBinaryFile(laptops[i], file("write-" + i + ".bin"));
+    }
+  }
+
+  @Benchmark
+  public long writeBinaryRecords() throws IOException {
+    return serializer.writeBinaryRecords(Arrays.asList(laptops).iterator(), file("write.bin"));
+  }
+
+  @Benchmark
+  public void writePerFileJSON() throws IOException {
+    for (int i = 0; i < LAPTOPS; i++) {
+      serializer.writeJSONFile(laptops[i], file("write-" + i + ".json"));
+    }
+  }
+
+  @Benchmark
+  public long writeJSONLines() throws IOException {
+    return serializer.writeJSONLinesFile(Arrays.asList(laptops).iterator(), file("write.jsonl"));
+  }
+
+  @Benchmark
+  public long readPerFileBinary() throws IOException {
+    long checksum = 0;
+    for (int i = 0; i < LAPTOPS; i++) {
+      checksum += serializer.readBinaryFile(file("read-" + i + ".bin")).getReleaseYear();
+    }
+    return checksum;
+  }
+
+  @Benchmark
+  public long readBinaryRecords() throws IOException {
+    try (Stream<Laptop> read = serializer.readBinaryRecords(file("read.bin"))) {
+      return read.mapToLong(Laptop::getReleaseYear).sum();
+    }
+  }
+
+  @Benchmark
+  public long readJSONLines() throws IOException {
+    try (Stream<Laptop> read = serializer.readJSONLinesFile(file("read.jsonl"))) {
+      return read.mapToLong(Laptop::getReleaseYear).sum();
+    }
+  }
+
+  @Benchmark
+  public long convertBinaryToJSONLines() throws IOException {
+    return serializer.convertBinaryToJSONLines(file("read.bin"), file("convert.jsonl"),
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  @Benchmark
+  public long convertJSONLinesToBinary() throws IOException {
+    return serializer.convertJSONLinesToBinary(file("read.jsonl"), file("convert.bin"),
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  private String file(String name) {
+    return directory.resolve(name).toString();
+  }
+}
@@ -0,0 +1,105 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.CreateLaptopRequest;
+import com.kegmil.example.pcbook.pb.CreateLaptopResponse;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest;
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import com.kegmil.example.pcbook.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * End-to-end latency of {@code createLaptop} and {@code searchLaptop} through an in-process gRPC
+ * server and channel, so that marshalling and the service code are measured without the network.
+ *
+ * <p>Each {@link ServerExecutionModel} is measured; run with {@code -t} to see how they behave under
+ * concurrent calls, and add {@code -p executionModel=virtual} on JDK 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LaptopServiceBenchmark {
+
+  private static final int LAPTOPS = 10000;
+
+  // held so that the logging configuration is not garbage collected
+  private static final Logger serviceLogger = Logger.getLogger(LaptopService.class.getName());
+
+  @Param({"cached", "bounded", "per-method"})
+  public String executionModel;
+
+  private LaptopServer server;
+  private ManagedChannel channel;
+  private LaptopServiceGrpc.LaptopServiceBlockingStub stub;
+  private CreateLaptopRequest createRequest;
+  private SearchLaptopRequest searchRequest;
+
+  @Setup(Level.Trial)
+  public void start() throws Exception {
+    serviceLogger.setLevel(java.util.logging.Level.WARNING);
+
+    InMemoryLaptopStore store = new InMemoryLaptopStore(true);
+    Generator generator = new Generator();
+    for (int i = 0; i < LAPTOPS; i++) {
+      store.save(generator.newLaptop());
+    }
+
+    String serverName = InProcessServerBuilder.generateName();
+    server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, store,
+        ServerExecutionModel.parse(executionModel));
+    server.start();
+    channel = InProcessChannelBuilder.forName(serverName).build();
+    stub = LaptopServiceGrpc.newBlockingStub(channel);
+
+    // an empty ID makes the server assign a new one, so the same request can be sent repeatedly
+    createRequest = CreateLaptopRequest.newBuilder()
+        .setLaptop(generator.newLaptop().toBuilder().setId(""))
+        .build();
+    searchRequest = SearchLaptopRequest.newBuilder()
+        .setFilter(Filter.newBuilder().setMaxPriceUsd(2500).setMinCpuCores(4).setMinCpuGhz(2.5))
+        .build();
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() throws Exception {
+    channel.shutdownNow().awaitTermination(10, TimeUnit.SECONDS);
+    server.stop();
+  }
+
+  @Benchmark
+  public CreateLaptopResponse createLaptop() {
+    return stub.createLaptop(createRequest);
+  }
+
+  @Benchmark
+  public void searchLaptop(Blackhole blackhole) {
+    Iterator<SearchLaptopResponse> responses = stub.searchLaptop(searchRequest);
+    while (responses.hasNext()) {
+      blackhole.consume(responses.next());
+    }
+  }
+}
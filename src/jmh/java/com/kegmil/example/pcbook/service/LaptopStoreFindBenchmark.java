@@ -0,0 +1,70 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link LaptopStore#find} by 7 readers while a writer keeps saving new laptops into the
+ * same store, and of those saves.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LaptopStoreFindBenchmark {
+
+  private static final int LAPTOPS = 100000;
+
+  @Param({"inMemory", "offHeap"})
+  public String storeType;
+
+  private LaptopStore store;
+  private String[] ids;
+  private Generator generator;
+
+  @Setup(Level.Trial)
+  public void populate() throws Exception {
+    store = "offHeap".equals(storeType) ? new OffHeapLaptopStore() : new InMemoryLaptopStore();
+    generator = new Generator();
+    ids = new String[LAPTOPS];
+    for (int i = 0; i < LAPTOPS; i++) {
+      Laptop laptop = generator.newLaptop();
+      store.save(laptop);
+      ids[i] = laptop.getId();
+    }
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(7)
+  public Laptop find() {
+    return store.find(ids[ThreadLocalRandom.current().nextInt(LAPTOPS)]);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public void save() throws Exception {
+    // generating the laptop is part of the measured save
+    store.save(generator.newLaptop());
+  }
+}
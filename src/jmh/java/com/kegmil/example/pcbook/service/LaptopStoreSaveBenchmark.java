@@ -0,0 +1,81 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for 32 concurrent writers to each save a batch of distinct laptops with
+ * {@link LaptopStore#save}. Every iteration starts from an empty store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = LaptopStoreSaveBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = LaptopStoreSaveBenchmark.BATCH)
+@Fork(1)
+@Threads(32)
+public class LaptopStoreSaveBenchmark {
+
+  static final int BATCH = 20000;
+
+  @Param({"inMemory", "offHeap"})
+  public String storeType;
+
+  private LaptopStore store;
+
+  @Setup(Level.Iteration)
+  public void newStore() {
+    store = "offHeap".equals(storeType) ? new OffHeapLaptopStore() : new InMemoryLaptopStore();
+  }
+
+  @State(Scope.Thread)
+  public static class Writer {
+    private Laptop[] laptops;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generate() {
+      Generator generator = new Generator();
+      laptops = new Laptop[BATCH];
+      for (int i = 0; i < BATCH; i++) {
+        laptops[i] = generator.newLaptop();
+      }
+    }
+
+    @Setup(Level.Iteration)
+    public void rewind() {
+      next = 0;
+    }
+
+    Laptop next() {
+      Laptop laptop = laptops[next];
+      next = (next + 1) % BATCH;
+      return laptop;
+    }
+  }
+
+  @Benchmark
+  public boolean save(Writer writer) throws Exception {
+    try {
+      store.save(writer.next());
+      return true;
+    } catch (AlreadyExistException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for a full {@link LaptopStore#search} over catalogs of generated laptops, with filters that
+ * match a small, a medium and a large share of the catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class LaptopStoreSearchBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int laptops;
+
+  @Param({"inMemory", "indexed", "bitmap"})
+  public String storeType;
+
+  @Param({"narrow", "medium", "broad"})
+  public String selectivity;
+
+  private LaptopStore store;
+  private Filter filter;
+
+  @Setup(Level.Trial)
+  public void populate() throws Exception {
+    switch (storeType) {
+      case "indexed":
+        store = new IndexedLaptopStore();
+        break;
+      case "bitmap":
+        store = new BitmapLaptopStore();
+        break;
+      default:
+        store = new InMemoryLaptopStore();
+    }
+
+    Generator generator = new Generator();
+    List<Laptop> batch = new ArrayList<>(1000);
+    for (int i = 0; i < laptops; i++) {
+      batch.add(generator.newLaptop());
+      if (batch.size() == 1000) {
+        store.saveAll(batch);
+        batch.clear();
+      }
+    }
+    store.saveAll(batch);
+
+    switch (selectivity) {
+      case "narrow":
+        Memory minRam = Memory.newBuilder().setValue(48).setUnit(Memory.Unit.GIGABYTE).build();
+        filter = Filter.newBuilder().setMaxPriceUsd(1600).setMinCpuCores(8).setMinRam(minRam).build();
+        break;
+      case "medium":
+        filter = Filter.newBuilder().setMaxPriceUsd(2500).setMinCpuCores(4).setMinCpuGhz(2.5).build();
+        break;
+      default:
+        filter = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    }
+  }
+
+  @Benchmark
+  public void search(Blackhole blackhole) {
+    store.search(filter, blackhole::consume);
+  }
+}
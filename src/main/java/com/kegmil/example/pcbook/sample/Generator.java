@@ -9,34 +9,141 @@ import com.kegmil.example.pcbook.pb.Storage;
 import com.kegmil.example.pcbook.pb.Screen;
 import com.kegmil.example.pcbook.pb.Laptop;
 
+import com.kegmil.example.pcbook.serializer.Serializer;
+
+import java.io.IOException;
 import java.time.Instant;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
 import java.util.UUID;
-
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Generates random laptops. A generator is not thread-safe; use one per thread, or {@link #laptops}
+ * to generate in parallel. Generators created with the same seed and a distribution with a fixed
+ * {@code updated_at} produce the same laptops, IDs included.
+ */
 public class Generator {
 
-  private Random random;
+  private static final int WRITE_CHUNK_SIZE = 1 << 16;
+  private static final long SEED_GAMMA = 0x9E3779B97F4A7C15L;
+
+  // protobuf messages are immutable, so the common small ones are built once and shared
+  private static final Memory[] GIGABYTES = new Memory[1025];
+  private static final Storage[] SSDS = new Storage[1025];
+  private static final Storage[] HDDS = new Storage[7];
+  private static final Keyboard[] KEYBOARDS = new Keyboard[6];
+
+  static {
+    for (int gb = 0; gb < GIGABYTES.length; gb++) {
+      GIGABYTES[gb] = Memory.newBuilder().setValue(gb).setUnit(Memory.Unit.GIGABYTE).build();
+      SSDS[gb] = Storage.newBuilder().setDriver(Storage.Driver.SSD).setMemory(GIGABYTES[gb]).build();
+    }
+    for (int tb = 0; tb < HDDS.length; tb++) {
+      Memory memory = Memory.newBuilder().setValue(tb).setUnit(Memory.Unit.TERABYTE).build();
+      HDDS[tb] = Storage.newBuilder().setDriver(Storage.Driver.HDD).setMemory(memory).build();
+    }
+    Keyboard.Layout[] layouts = {Keyboard.Layout.AZERTY, Keyboard.Layout.QWERTY, Keyboard.Layout.QWERTZ};
+    for (int i = 0; i < KEYBOARDS.length; i++) {
+      KEYBOARDS[i] = Keyboard.newBuilder().setLayout(layouts[i >> 1]).setBacklit((i & 1) != 0).build();
+    }
+  }
+
+  private final SplittableRandom random;
+  private final LaptopDistribution distribution;
+  private final Timestamp updatedAt;
 
   public Generator() {
-    random = new Random();
+    this(new SplittableRandom(), LaptopDistribution.DEFAULT, null);
+  }
+
+  public Generator(long seed) {
+    this(seed, LaptopDistribution.DEFAULT);
+  }
+
+  public Generator(long seed, LaptopDistribution distribution) {
+    this(new SplittableRandom(seed), distribution, null);
+  }
+
+  private Generator(SplittableRandom random, LaptopDistribution distribution, Timestamp updatedAt) {
+    this.random = random;
+    this.distribution = distribution;
+    this.updatedAt = updatedAt != null ? updatedAt : timestamp(distribution);
+  }
+
+  /**
+   * Returns {@code count} laptops generated in parallel. Laptop {@code i} only depends on the seed,
+   * the distribution and {@code i}, so the stream is the same however it is split.
+   */
+  public static Stream<Laptop> laptops(long seed, long count, LaptopDistribution distribution) {
+    Timestamp updatedAt = timestamp(distribution);
+    return LongStream.range(0, count).parallel()
+        .mapToObj(i -> laptop(seed, i, distribution, updatedAt));
+  }
+
+  /**
+   * Writes the laptops of {@link #laptops} to a file of length-delimited records, generating them
+   * in parallel one chunk at a time.
+   *
+   * @return the number of laptops written
+   */
+  public static long writeBinaryRecords(long seed, long count, LaptopDistribution distribution,
+                                        String fileName) throws IOException {
+    Timestamp updatedAt = timestamp(distribution);
+    Iterator<Laptop> laptops = new Iterator<Laptop>() {
+      private long generated;
+      private Laptop[] chunk = new Laptop[0];
+      private int position;
+
+      @Override
+      public boolean hasNext() {
+        return position < chunk.length || generated < count;
+      }
+
+      @Override
+      public Laptop next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (position == chunk.length) {
+          long from = generated;
+          long to = Math.min(from + WRITE_CHUNK_SIZE, count);
+          chunk = LongStream.range(from, to).parallel()
+              .mapToObj(i -> laptop(seed, i, distribution, updatedAt))
+              .toArray(Laptop[]::new);
+          generated = to;
+          position = 0;
+        }
+        return chunk[position++];
+      }
+    };
+    return new Serializer().writeBinaryRecords(laptops, fileName);
+  }
+
+  private static Laptop laptop(long seed, long index, LaptopDistribution distribution, Timestamp updatedAt) {
+    // distinct indexes give distinct, well mixed seeds
+    long z = seed + index * SEED_GAMMA;
+    z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+    z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    z ^= z >>> 33;
+    return new Generator(new SplittableRandom(z), distribution, updatedAt).newLaptop();
   }
 
   public Keyboard newKeyboard() {
-    return Keyboard.newBuilder()
-        .setLayout(randomKeyboardLayout())
-        .setBacklit(random.nextBoolean())
-        .build();
+    return KEYBOARDS[random.nextInt(KEYBOARDS.length)];
   }
 
   public CPU newCPU() {
     String brand = randomCPUBrand();
     String name = randomCPUName(brand);
 
-    int numberCores = randomInt(2, 8);
-    int numberThreads = randomInt(numberCores, 12);
+    int numberCores = randomInt(distribution.minCores, distribution.maxCores);
+    int numberThreads = randomInt(numberCores, Math.max(numberCores, 12));
 
-    double minGhz = randomDouble(2.0, 3.5);
-    double maxGhz = randomDouble(minGhz, 5.0);
+    double minGhz = randomDouble(distribution.minCpuGhz, distribution.maxCpuGhz);
+    double maxGhz = randomDouble(minGhz, Math.max(minGhz, 5.0));
 
     return CPU.newBuilder()
         .setBrand(brand)
@@ -55,10 +162,7 @@ public class Generator {
     double minGhz = randomDouble(1.0, 1.5);
     double mazGhz = randomDouble(minGhz, 2.0);
 
-    Memory memory = Memory.newBuilder()
-        .setValue(randomInt(2, 6))
-        .setUnit(Memory.Unit.GIGABYTE)
-        .build();
+    Memory memory = gigabytes(randomInt(2, 6));
 
     return GPU.newBuilder()
         .setBrand(brand)
@@ -70,34 +174,15 @@ public class Generator {
   }
 
   public Memory newRAM() {
-    return Memory.newBuilder()
-        .setValue(randomInt(4, 64))
-        .setUnit(Memory.Unit.GIGABYTE)
-        .build();
+    return gigabytes(randomInt(distribution.minRamGb, distribution.maxRamGb));
   }
 
   public Storage newSSD() {
-    Memory memory = Memory.newBuilder()
-        .setValue(randomInt(128, 1024))
-        .setUnit(Memory.Unit.GIGABYTE)
-        .build();
-
-    return Storage.newBuilder()
-        .setDriver(Storage.Driver.SSD)
-        .setMemory(memory)
-        .build();
+    return SSDS[randomInt(128, 1024)];
   }
 
   public Storage newHDD() {
-    Memory memory = Memory.newBuilder()
-        .setValue(randomInt(1, 6))
-        .setUnit(Memory.Unit.TERABYTE)
-        .build();
-
-    return Storage.newBuilder()
-        .setDriver(Storage.Driver.HDD)
-        .setMemory(memory)
-        .build();
+    return HDDS[randomInt(1, 6)];
   }
 
   public Screen newScreen() {
@@ -122,12 +207,13 @@ public class Generator {
     String name = randomLaptopName(brand);
 
     double weightKg = randomDouble(1.0, 3.0);
-    double priceUsd = randomDouble(1500, 3500);
+    double priceUsd = distribution.minPriceUsd + (distribution.maxPriceUsd - distribution.minPriceUsd)
+        * Math.pow(random.nextDouble(), distribution.priceSkew);
 
-    int releaseYear = randomInt(2015, 2019);
+    int releaseYear = randomInt(distribution.minReleaseYear, distribution.maxReleaseYear);
 
     return Laptop.newBuilder()
-        .setId(UUID.randomUUID().toString())
+        .setId(randomId())
         .setBrand(brand)
         .setName(name)
         .setCpu(newCPU())
@@ -140,18 +226,32 @@ public class Generator {
         .setWeightKg(weightKg)
         .setPriceUsd(priceUsd)
         .setReleaseYear(releaseYear)
-        .setUpdatedAt(timestampNow())
+        .setUpdatedAt(updatedAt)
         .build();
   }
 
-  private Timestamp timestampNow() {
-    Instant now = Instant.now();
+  private String randomId() {
+    // a version 4 UUID drawn from this generator, unlike UUID.randomUUID which contends on SecureRandom
+    long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+    long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(msb, lsb).toString();
+  }
+
+  private static Timestamp timestamp(LaptopDistribution distribution) {
+    Instant instant = distribution.updatedAt != null ? distribution.updatedAt : Instant.now();
     return Timestamp.newBuilder()
-        .setSeconds(now.getEpochSecond())
-        .setNanos(now.getNano())
+        .setSeconds(instant.getEpochSecond())
+        .setNanos(instant.getNano())
         .build();
   }
 
+  private static Memory gigabytes(int value) {
+    if (value < GIGABYTES.length) {
+      return GIGABYTES[value];
+    }
+    return Memory.newBuilder().setValue(value).setUnit(Memory.Unit.GIGABYTE).build();
+  }
+
   private String randomLaptopName(String brand) {
     switch (brand) {
       case "Apple":
@@ -164,7 +264,14 @@ public class Generator {
   }
 
   private String randomLaptopBrand() {
-    return randomStringFromSet("Apple", "Dell", "Lenovo");
+    double u = random.nextDouble();
+    double[] cumulative = distribution.brandCumulativeWeights;
+    for (int i = 0; i < cumulative.length - 1; i++) {
+      if (u < cumulative[i]) {
+        return distribution.brands[i];
+      }
+    }
+    return distribution.brands[cumulative.length - 1];
   }
 
   private Screen.Panel randomScreenPanel() {
@@ -175,7 +282,7 @@ public class Generator {
   }
 
   private float randomFloat(int min, int max) {
-    return min + random.nextFloat() * (max - min);
+    return min + (float) random.nextDouble() * (max - min);
   }
 
   private String randomGPUName(String brand) {
@@ -219,18 +326,18 @@ public class Generator {
     return strings[random.nextInt(n)];
   }
 
-  private Keyboard.Layout randomKeyboardLayout() {
-    switch (random.nextInt(3)) {
-      case 1:
-        return Keyboard.Layout.QWERTY;
-      case 2:
-        return Keyboard.Layout.QWERTZ;
-      default:
-        return Keyboard.Layout.AZERTY;
+  /**
+   * Prints a laptop, or with arguments {@code <count> <seed> <file>} writes a fixture of
+   * {@code count} laptops to a binary records file.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 3) {
+      long count = writeBinaryRecords(Long.parseLong(args[1]), Long.parseLong(args[0]),
+          LaptopDistribution.DEFAULT, args[2]);
+      System.out.println("Wrote " + count + " laptops to " + args[2]);
+      return;
     }
-  }
 
-  public static void main(String[] args) {
     Generator generator = new Generator();
     Laptop laptop = generator.newLaptop();
     System.out.println(laptop);
@@ -0,0 +1,159 @@
+package com.kegmil.example.pcbook.sample;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ranges and mixes that {@link Generator} draws laptop fields from. The defaults are the ranges the
+ * generator has always used.
+ */
+public final class LaptopDistribution {
+
+  public static final LaptopDistribution DEFAULT = newBuilder().build();
+
+  final double minPriceUsd;
+  final double maxPriceUsd;
+  final double priceSkew;
+  final String[] brands;
+  final double[] brandCumulativeWeights;
+  final int minCores;
+  final int maxCores;
+  final double minCpuGhz;
+  final double maxCpuGhz;
+  final int minRamGb;
+  final int maxRamGb;
+  final int minReleaseYear;
+  final int maxReleaseYear;
+  final Instant updatedAt;
+
+  private LaptopDistribution(Builder builder) {
+    minPriceUsd = builder.minPriceUsd;
+    maxPriceUsd = builder.maxPriceUsd;
+    priceSkew = builder.priceSkew;
+    brands = builder.brandWeights.keySet().toArray(new String[0]);
+    brandCumulativeWeights = new double[brands.length];
+    double total = 0;
+    for (int i = 0; i < brands.length; i++) {
+      total += builder.brandWeights.get(brands[i]);
+      brandCumulativeWeights[i] = total;
+    }
+    for (int i = 0; i < brands.length; i++) {
+      brandCumulativeWeights[i] /= total;
+    }
+    minCores = builder.minCores;
+    maxCores = builder.maxCores;
+    minCpuGhz = builder.minCpuGhz;
+    maxCpuGhz = builder.maxCpuGhz;
+    minRamGb = builder.minRamGb;
+    maxRamGb = builder.maxRamGb;
+    minReleaseYear = builder.minReleaseYear;
+    maxReleaseYear = builder.maxReleaseYear;
+    updatedAt = builder.updatedAt;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    private double minPriceUsd = 1500;
+    private double maxPriceUsd = 3500;
+    private double priceSkew = 1;
+    private Map<String, Double> brandWeights = new LinkedHashMap<>();
+    private int minCores = 2;
+    private int maxCores = 8;
+    private double minCpuGhz = 2.0;
+    private double maxCpuGhz = 3.5;
+    private int minRamGb = 4;
+    private int maxRamGb = 64;
+    private int minReleaseYear = 2015;
+    private int maxReleaseYear = 2019;
+    private Instant updatedAt;
+
+    private Builder() {
+      brandWeights.put("Apple", 1.0);
+      brandWeights.put("Dell", 1.0);
+      brandWeights.put("Lenovo", 1.0);
+    }
+
+    public Builder setPriceRange(double minPriceUsd, double maxPriceUsd) {
+      checkRange(minPriceUsd, maxPriceUsd);
+      this.minPriceUsd = minPriceUsd;
+      this.maxPriceUsd = maxPriceUsd;
+      return this;
+    }
+
+    /**
+     * Prices are drawn as {@code min + (max - min) * u^skew} for a uniform {@code u}: 1 is uniform,
+     * larger values make cheap laptops more common and smaller values expensive ones.
+     */
+    public Builder setPriceSkew(double priceSkew) {
+      if (!(priceSkew > 0)) {
+        throw new IllegalArgumentException("price skew must be positive");
+      }
+      this.priceSkew = priceSkew;
+      return this;
+    }
+
+    /**
+     * Replaces the brand mix. Apple, Dell and Lenovo get their own model names, other brands get
+     * Lenovo's.
+     */
+    public Builder setBrandWeights(Map<String, Double> brandWeights) {
+      if (brandWeights.isEmpty() || brandWeights.values().stream().anyMatch(weight -> !(weight >= 0))
+          || brandWeights.values().stream().mapToDouble(Double::doubleValue).sum() <= 0) {
+        throw new IllegalArgumentException("brand weights must be non-negative with a positive sum");
+      }
+      this.brandWeights = new LinkedHashMap<>(brandWeights);
+      return this;
+    }
+
+    public Builder setCores(int minCores, int maxCores) {
+      checkRange(minCores, maxCores);
+      this.minCores = minCores;
+      this.maxCores = maxCores;
+      return this;
+    }
+
+    public Builder setCpuGhz(double minCpuGhz, double maxCpuGhz) {
+      checkRange(minCpuGhz, maxCpuGhz);
+      this.minCpuGhz = minCpuGhz;
+      this.maxCpuGhz = maxCpuGhz;
+      return this;
+    }
+
+    public Builder setRamGb(int minRamGb, int maxRamGb) {
+      checkRange(minRamGb, maxRamGb);
+      this.minRamGb = minRamGb;
+      this.maxRamGb = maxRamGb;
+      return this;
+    }
+
+    public Builder setReleaseYears(int minReleaseYear, int maxReleaseYear) {
+      checkRange(minReleaseYear, maxReleaseYear);
+      this.minReleaseYear = minReleaseYear;
+      this.maxReleaseYear = maxReleaseYear;
+      return this;
+    }
+
+    /**
+     * Sets the {@code updated_at} of every laptop. By default it is the time the generator was
+     * created, so set it for fixtures that must be reproducible.
+     */
+    public Builder setUpdatedAt(Instant updatedAt) {
+      this.updatedAt = updatedAt;
+      return this;
+    }
+
+    public LaptopDistribution build() {
+      return new LaptopDistribution(this);
+    }
+
+    private static void checkRange(double min, double max) {
+      if (!(min <= max)) {
+        throw new IllegalArgumentException("invalid range [" + min + ", " + max + "]");
+      }
+    }
+  }
+}
@@ -1,14 +1,46 @@
 package com.kegmil.example.pcbook.serializer;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
 import com.kegmil.example.pcbook.pb.Laptop;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Serializer {
 
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int CONVERT_CHUNK_SIZE = 1024;
+
   public void writeBinaryFile(Laptop laptop, String fileName) throws IOException {
     FileOutputStream outputStream = new FileOutputStream(fileName);
     laptop.writeTo(outputStream);
@@ -34,8 +66,267 @@ public class Serializer {
     outStream.close();
   }
 
+  /**
+   * Writes the laptops as length-delimited records, the format of {@link Laptop#writeDelimitedTo}.
+   *
+   * @return the number of laptops written
+   */
+  public long writeBinaryRecords(Iterator<Laptop> laptops, String fileName) throws IOException {
+    long count = 0;
+    try (OutputStream out = Files.newOutputStream(Paths.get(fileName))) {
+      CodedOutputStream coded = CodedOutputStream.newInstance(out, BUFFER_SIZE);
+      while (laptops.hasNext()) {
+        Laptop laptop = laptops.next();
+        coded.writeUInt32NoTag(laptop.getSerializedSize());
+        laptop.writeTo(coded);
+        count++;
+      }
+      coded.flush();
+    }
+    return count;
+  }
+
+  public long writeBinaryRecords(Stream<Laptop> laptops, String fileName) throws IOException {
+    return writeBinaryRecords(laptops.iterator(), fileName);
+  }
+
+  /**
+   * Returns the laptops of a file written by {@link #writeBinaryRecords}, read as the stream is
+   * consumed. The stream must be closed to close the file.
+   */
+  public Stream<Laptop> readBinaryRecords(String fileName) throws IOException {
+    InputStream in = Files.newInputStream(Paths.get(fileName));
+    CodedInputStream coded = CodedInputStream.newInstance(in, BUFFER_SIZE);
+
+    Spliterator<Laptop> records = new Spliterators.AbstractSpliterator<Laptop>(
+        Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Laptop> action) {
+        try {
+          if (coded.isAtEnd()) {
+            return false;
+          }
+          // the size limit applies to everything read since the last reset, not to one record
+          coded.resetSizeCounter();
+          Laptop.Builder laptop = Laptop.newBuilder();
+          coded.readMessage(laptop, ExtensionRegistryLite.getEmptyRegistry());
+          action.accept(laptop.build());
+          return true;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+
+    return StreamSupport.stream(records, false).onClose(() -> {
+      try {
+        in.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Writes one compact JSON document per line.
+   *
+   * @return the number of laptops written
+   */
+  public long writeJSONLinesFile(Iterator<Laptop> laptops, String fileName) throws IOException {
+    JsonFormat.Printer printer = JsonFormat.printer()
+        .includingDefaultValueFields()
+        .preservingProtoFieldNames()
+        .omittingInsignificantWhitespace();
+
+    long count = 0;
+    try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+      while (laptops.hasNext()) {
+        printer.appendTo(laptops.next(), writer);
+        writer.newLine();
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public long writeJSONLinesFile(Stream<Laptop> laptops, String fileName) throws IOException {
+    return writeJSONLinesFile(laptops.iterator(), fileName);
+  }
+
+  /**
+   * Returns the laptops of a file written by {@link #writeJSONLinesFile}, read as the stream is
+   * consumed. The stream must be closed to close the file.
+   */
+  public Stream<Laptop> readJSONLinesFile(String fileName) throws IOException {
+    JsonFormat.Parser parser = JsonFormat.parser();
+    return Files.lines(Paths.get(fileName), StandardCharsets.UTF_8)
+        .filter(line -> !line.isEmpty())
+        .map(line -> {
+          Laptop.Builder laptop = Laptop.newBuilder();
+          try {
+            parser.merge(line, laptop);
+          } catch (InvalidProtocolBufferException e) {
+            throw new UncheckedIOException(e);
+          }
+          return laptop.build();
+        });
+  }
+
+  /**
+   * Converts a file written by {@link #writeBinaryRecords} to JSON lines. Chunks of records are
+   * decoded and printed on {@code threads} workers and written in their original order.
+   *
+   * @return the number of laptops converted
+   */
+  public long convertBinaryToJSONLines(String binaryFile, String jsonFile, int threads) throws IOException {
+    // printers are immutable, so one instance serves every worker
+    JsonFormat.Printer printer = JsonFormat.printer()
+        .includingDefaultValueFields()
+        .preservingProtoFieldNames()
+        .omittingInsignificantWhitespace();
+
+    try (InputStream in = Files.newInputStream(Paths.get(binaryFile));
+         OutputStream out = Files.newOutputStream(Paths.get(jsonFile))) {
+      CodedInputStream coded = CodedInputStream.newInstance(in, BUFFER_SIZE);
+      ChunkReader<byte[]> reader = () -> {
+        List<byte[]> records = new ArrayList<>(CONVERT_CHUNK_SIZE);
+        while (records.size() < CONVERT_CHUNK_SIZE && !coded.isAtEnd()) {
+          coded.resetSizeCounter();
+          // a length-delimited record is exactly a length-prefixed byte array
+          records.add(coded.readByteArray());
+        }
+        return records;
+      };
+
+      return convert(reader, records -> {
+        StringBuilder json = new StringBuilder(records.size() * 1024);
+        for (byte[] record : records) {
+          printer.appendTo(Laptop.parseFrom(record), json);
+          json.append('\n');
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+      }, out, threads);
+    }
+  }
+
+  /**
+   * Converts a file written by {@link #writeJSONLinesFile} to length-delimited records, parsing
+   * chunks of lines on {@code threads} workers.
+   *
+   * @return the number of laptops converted
+   */
+  public long convertJSONLinesToBinary(String jsonFile, String binaryFile, int threads) throws IOException {
+    JsonFormat.Parser parser = JsonFormat.parser();
+
+    try (BufferedReader in = Files.newBufferedReader(Paths.get(jsonFile), StandardCharsets.UTF_8);
+         OutputStream out = Files.newOutputStream(Paths.get(binaryFile))) {
+      ChunkReader<String> reader = () -> {
+        List<String> lines = new ArrayList<>(CONVERT_CHUNK_SIZE);
+        String line;
+        while (lines.size() < CONVERT_CHUNK_SIZE && (line = in.readLine()) != null) {
+          if (!line.isEmpty()) {
+            lines.add(line);
+          }
+        }
+        return lines;
+      };
+
+      return convert(reader, lines -> {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(lines.size() * 512);
+        Laptop.Builder laptop = Laptop.newBuilder();
+        for (String line : lines) {
+          parser.merge(line, laptop.clear());
+          laptop.build().writeDelimitedTo(records);
+        }
+        return records.toByteArray();
+      }, out, threads);
+    }
+  }
+
+  /**
+   * Reads chunks on a reader thread, converts them on a worker pool and writes the results on the
+   * calling thread in reading order. The queue between reader and writer is bounded, so a slow disk
+   * or slow workers stall the reader instead of buffering the whole file.
+   */
+  private static <T> long convert(ChunkReader<T> reader, ChunkConverter<T> converter, OutputStream out,
+                                  int threads) throws IOException {
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    ExecutorService readerThread = Executors.newSingleThreadExecutor();
+    BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<>(threads * 2);
+    Future<byte[]> end = CompletableFuture.completedFuture(null);
+
+    try {
+      Future<Long> read = readerThread.submit(() -> {
+        long count = 0;
+        try {
+          List<T> chunk;
+          while (!(chunk = reader.read()).isEmpty()) {
+            List<T> items = chunk;
+            pending.put(workers.submit(() -> converter.convert(items)));
+            count += items.size();
+          }
+        } catch (IOException | RuntimeException e) {
+          CompletableFuture<byte[]> failed = new CompletableFuture<>();
+          failed.completeExceptionally(e);
+          pending.put(failed);
+          return count;
+        }
+        pending.put(end);
+        return count;
+      });
+
+      Future<byte[]> next;
+      while ((next = pending.take()) != end) {
+        out.write(next.get());
+      }
+      return read.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("conversion interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("conversion failed", e.getCause());
+    } finally {
+      readerThread.shutdownNow();
+      workers.shutdownNow();
+    }
+  }
+
+  @FunctionalInterface
+  private interface ChunkReader<T> {
+    /**
+     * Returns the next chunk, or an empty list at the end of the input.
+     */
+    List<T> read() throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface ChunkConverter<T> {
+    byte[] convert(List<T> chunk) throws IOException;
+  }
+
+  /**
+   * Converts {@code laptop.bin} to {@code laptop.json}, or with arguments
+   * {@code bin2json|json2bin <input> <output>} converts a whole catalog on all cores.
+   */
   public static void main(String[] args) throws IOException {
     Serializer serializer = new Serializer();
+    if (args.length == 3) {
+      int threads = Runtime.getRuntime().availableProcessors();
+      long count;
+      if ("bin2json".equals(args[0])) {
+        count = serializer.convertBinaryToJSONLines(args[1], args[2], threads);
+      } else if ("json2bin".equals(args[0])) {
+        count = serializer.convertJSONLinesToBinary(args[1], args[2], threads);
+      } else {
+        throw new IllegalArgumentException("unknown conversion: " + args[0]);
+      }
+      System.out.println("Converted " + count + " laptops");
+      return;
+    }
+
     Laptop laptop = serializer.readBinaryFile("laptop.bin");
     serializer.writeJSONFile(laptop, "laptop.json");
   }
@@ -0,0 +1,227 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Laptop store that keeps one bitset per bucket of each {@link Filter} dimension.
+ *
+ * <p>Bucket functions are monotone, so for every predicate the buckets strictly on the qualifying
+ * side of the threshold's bucket match entirely and only the threshold's own bucket needs an exact
+ * check. A search ORs the buckets of each dimension, ANDs the dimensions together and runs the
+ * residual check only on candidates that came from a boundary bucket.
+ */
+public class BitmapLaptopStore extends InMemoryLaptopStore {
+
+  private static final int CORES_BUCKETS = 16;
+  private static final int RAM_BUCKETS = 65;
+  private static final int PRICE_BUCKETS = 64;
+  private static final double PRICE_BAND_USD = 250;
+  private static final int CPU_GHZ_BUCKETS = 32;
+  private static final double CPU_GHZ_BANDS_PER_GHZ = 4;
+  private static final int WORDS_PER_CALL = 64;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Dimension prices = new Dimension(PRICE_BUCKETS);
+  private final Dimension cores = new Dimension(CORES_BUCKETS);
+  private final Dimension cpuGhz = new Dimension(CPU_GHZ_BUCKETS);
+  private final Dimension ram = new Dimension(RAM_BUCKETS);
+
+  @Override
+  void onSaved(int from, int to) {
+    LaptopColumns columns = columns();
+    lock.writeLock().lock();
+    try {
+      for (int ordinal = from; ordinal < to; ordinal++) {
+        prices.add(priceBucket(columns.price(ordinal)), ordinal);
+        cores.add(coresBucket(columns.cores(ordinal)), ordinal);
+        cpuGhz.add(cpuGhzBucket(columns.minGhz(ordinal)), ordinal);
+        ram.add(ramBucket(columns.ramBits(ordinal)), ordinal);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  long indexBytes() {
+    lock.readLock().lock();
+    try {
+      return prices.bytes() + cores.bytes() + cpuGhz.bytes() + ram.bytes();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void search(Filter filter, LaptopStream stream) {
+    cursor(filter).forEachRemaining(stream);
+  }
+
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    LaptopColumns columns = columns();
+    LaptopFilter compiled = LaptopFilter.compile(filter);
+    double maxPrice = compiled.maxPrice;
+    int minCores = compiled.minCores;
+    double minCpuGhz = compiled.minCpuGhz;
+    long minRam = compiled.minRam;
+
+    long[] candidates;
+    long[] exact;
+    lock.readLock().lock();
+    try {
+      int words = prices.words;
+      candidates = new long[words];
+      exact = new long[words];
+      Arrays.fill(candidates, -1L);
+      Arrays.fill(exact, -1L);
+
+      long[] sure = new long[words];
+      long[] boundary = new long[words];
+
+      // price is an upper bound, the other predicates are lower bounds
+      int bucket = priceBucket(maxPrice);
+      prices.restrict(0, bucket, bucket, sure, boundary, candidates, exact);
+
+      bucket = coresBucket(minCores);
+      cores.restrict(bucket + 1, CORES_BUCKETS, bucket, sure, boundary, candidates, exact);
+
+      bucket = cpuGhzBucket(minCpuGhz);
+      cpuGhz.restrict(bucket + 1, CPU_GHZ_BUCKETS, bucket, sure, boundary, candidates, exact);
+
+      bucket = ramBucket(minRam);
+      ram.restrict(bucket + 1, RAM_BUCKETS, bucket, sure, boundary, candidates, exact);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    // bound after the bitmaps, so the columns cover every candidate; exact candidates only need the
+    // criteria the buckets do not cover
+    ColumnMatcher extras = columns.matcher(compiled, false);
+    ColumnMatcher all = columns.matcher(compiled, true);
+    LaptopStoreMetrics metrics = metrics();
+    return new LaptopCursor() {
+      private int w;
+      private long word = candidates.length == 0 ? 0 : candidates[0];
+
+      @Override
+      public boolean next(int max, LaptopStream stream) {
+        int sent = 0;
+        int examined = 0;
+        int limit = Math.min(candidates.length, w + WORDS_PER_CALL);
+        while (sent < max) {
+          if (word == 0) {
+            if (w + 1 >= limit) {
+              break;
+            }
+            word = candidates[++w];
+            continue;
+          }
+
+          long bit = word & -word;
+          word ^= bit;
+          examined++;
+
+          int ordinal = (w << 6) + Long.numberOfTrailingZeros(bit);
+          if ((exact[w] & bit) != 0 ? extras.matches(ordinal) : all.matches(ordinal)) {
+            columns.send(ordinal, stream);
+            sent++;
+          }
+        }
+        metrics.scanned(examined, sent);
+        return word != 0 || w + 1 < candidates.length;
+      }
+    };
+  }
+
+  // A laptop's NaN never matches, so it goes to the bucket that is never fully on the qualifying
+  // side. Thresholds are never NaN, as LaptopFilter rejects them.
+  private static int priceBucket(double price) {
+    if (Double.isNaN(price)) {
+      return PRICE_BUCKETS - 1;
+    }
+    return clamp((long) Math.floor(price / PRICE_BAND_USD), PRICE_BUCKETS);
+  }
+
+  private static int cpuGhzBucket(double ghz) {
+    if (Double.isNaN(ghz)) {
+      return 0;
+    }
+    return clamp((long) Math.floor(ghz * CPU_GHZ_BANDS_PER_GHZ), CPU_GHZ_BUCKETS);
+  }
+
+  private static int coresBucket(int cores) {
+    return clamp(cores, CORES_BUCKETS);
+  }
+
+  private static int ramBucket(long bits) {
+    return bits <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(bits);
+  }
+
+  private static int clamp(long bucket, int buckets) {
+    return (int) Math.max(0, Math.min(bucket, buckets - 1));
+  }
+
+  private static final class Dimension {
+    private final long[][] bitmaps;
+    private int words;
+
+    Dimension(int buckets) {
+      bitmaps = new long[buckets][];
+      Arrays.fill(bitmaps, new long[0]);
+    }
+
+    void add(int bucket, int ordinal) {
+      int word = ordinal >>> 6;
+      if (word >= words) {
+        words = Math.max(word + 1, words << 1);
+      }
+
+      long[] bitmap = bitmaps[bucket];
+      if (word >= bitmap.length) {
+        bitmap = Arrays.copyOf(bitmap, words);
+        bitmaps[bucket] = bitmap;
+      }
+      bitmap[word] |= 1L << ordinal;
+    }
+
+    long bytes() {
+      long bytes = 0;
+      for (long[] bitmap : bitmaps) {
+        bytes += (long) bitmap.length * Long.BYTES;
+      }
+      return bytes;
+    }
+
+    /**
+     * ANDs the buckets {@code [from, to)} plus {@code boundary} into {@code candidates} and only
+     * the buckets {@code [from, to)} into {@code exact}.
+     */
+    void restrict(int from, int to, int boundaryBucket, long[] sure, long[] boundary,
+                  long[] candidates, long[] exact) {
+      Arrays.fill(sure, 0L);
+      for (int b = from; b < to; b++) {
+        or(bitmaps[b], sure);
+      }
+
+      Arrays.fill(boundary, 0L);
+      or(bitmaps[boundaryBucket], boundary);
+
+      for (int w = 0; w < candidates.length; w++) {
+        candidates[w] &= sure[w] | boundary[w];
+        exact[w] &= sure[w];
+      }
+    }
+
+    private static void or(long[] bitmap, long[] target) {
+      int n = Math.min(bitmap.length, target.length);
+      for (int w = 0; w < n; w++) {
+        target[w] |= bitmap[w];
+      }
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Laptop store that caches search results per {@link LaptopFilter} in front of another store. The
+ * cache is bounded by the number of laptops it references: results larger than
+ * {@code maxResultSize} are not collected at all, and the least recently used filters are evicted
+ * once more than {@code maxCachedLaptops} are cached. A save only drops the cached results whose
+ * filter matches the new laptop.
+ */
+public class CachingLaptopStore implements LaptopStore, CachingLaptopStoreMXBean {
+
+  public static final int DEFAULT_MAX_CACHED_LAPTOPS = 1 << 20;
+  public static final int DEFAULT_MAX_RESULT_SIZE = 1 << 14;
+
+  private final LaptopStore delegate;
+  private final int maxCachedLaptops;
+  private final int maxResultSize;
+  // in access order, so the first entry is the least recently used
+  private final Map<LaptopFilter, List<Laptop>> cache = new LinkedHashMap<>(16, 0.75f, true);
+  // laptops referenced by the cache, where an empty result counts as one
+  private long cachedLaptops;
+  // bumped under the cache lock by every save, so searches that raced a save are not cached
+  private long writes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public CachingLaptopStore(LaptopStore delegate) {
+    this(delegate, DEFAULT_MAX_CACHED_LAPTOPS, DEFAULT_MAX_RESULT_SIZE);
+  }
+
+  public CachingLaptopStore(LaptopStore delegate, int maxCachedLaptops, int maxResultSize) {
+    this.delegate = delegate;
+    this.maxCachedLaptops = maxCachedLaptops;
+    this.maxResultSize = Math.min(maxResultSize, maxCachedLaptops);
+  }
+
+  @Override
+  public void save(Laptop laptop) throws Exception {
+    save(UUID.fromString(laptop.getId()), laptop);
+  }
+
+  @Override
+  public void save(UUID id, Laptop laptop) throws Exception {
+    delegate.save(id, laptop);
+    invalidate(Collections.singletonList(laptop));
+  }
+
+  @Override
+  public BitSet saveAll(Collection<Laptop> laptops) throws Exception {
+    BitSet duplicates = delegate.saveAll(laptops);
+    List<Laptop> saved = new ArrayList<>(laptops.size());
+    int position = 0;
+    for (Laptop laptop : laptops) {
+      if (!duplicates.get(position++)) {
+        saved.add(laptop);
+      }
+    }
+    invalidate(saved);
+    return duplicates;
+  }
+
+  @Override
+  public Laptop find(String id) {
+    return delegate.find(id);
+  }
+
+  @Override
+  public Laptop find(UUID id) {
+    return delegate.find(id);
+  }
+
+  @Override
+  public int count() {
+    return delegate.count();
+  }
+
+  @Override
+  public void search(Filter filter, LaptopStream stream) {
+    cursor(filter).forEachRemaining(stream);
+  }
+
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    LaptopFilter key = LaptopFilter.compile(filter);
+    long version;
+    synchronized (cache) {
+      List<Laptop> cached = cache.get(key);
+      if (cached != null) {
+        hits.incrementAndGet();
+        return new ListCursor(cached);
+      }
+      version = writes;
+    }
+    misses.incrementAndGet();
+
+    // results are collected while the client consumes them and cached once the cursor is exhausted,
+    // unless they grow too large to cache, in which case collecting stops
+    LaptopCursor cursor = delegate.cursor(filter);
+    return new LaptopCursor() {
+      private List<Laptop> collected = new ArrayList<>();
+
+      @Override
+      public boolean next(int max, LaptopStream stream) {
+        boolean more = cursor.next(max, laptop -> {
+          if (collected != null) {
+            if (collected.size() == maxResultSize) {
+              collected = null;
+            } else {
+              collected.add(laptop);
+            }
+          }
+          stream.send(laptop);
+        });
+        if (!more && collected != null) {
+          put(key, collected, version);
+          collected = null;
+        }
+        return more;
+      }
+
+      @Override
+      public void cancel() {
+        collected = null;
+        cursor.cancel();
+      }
+    };
+  }
+
+  @Override
+  public List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    List<Laptop> cached;
+    synchronized (cache) {
+      cached = cache.get(LaptopFilter.compile(filter));
+    }
+    if (cached == null) {
+      misses.incrementAndGet();
+      return delegate.searchTop(filter, ordering, limit, after);
+    }
+
+    hits.incrementAndGet();
+    TopLaptops top = new TopLaptops(ordering, limit, after);
+    for (Laptop laptop : cached) {
+      top.send(laptop);
+    }
+    return top.result();
+  }
+
+  @Override
+  public void aggregate(Filter filter, LaptopAggregation aggregation) {
+    delegate.aggregate(filter, aggregation);
+  }
+
+  @Override
+  public LaptopSubscription watch(Filter filter, LaptopStream listener) {
+    return delegate.watch(filter, listener);
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  @Override
+  public long getCachedLaptops() {
+    synchronized (cache) {
+      return cachedLaptops;
+    }
+  }
+
+  private void put(LaptopFilter key, List<Laptop> matches, long version) {
+    synchronized (cache) {
+      if (writes != version) {
+        return;
+      }
+      List<Laptop> previous = cache.put(key, Collections.unmodifiableList(matches));
+      if (previous != null) {
+        cachedLaptops -= weight(previous);
+      }
+      cachedLaptops += weight(matches);
+
+      Iterator<List<Laptop>> eldest = cache.values().iterator();
+      while (cachedLaptops > maxCachedLaptops) {
+        cachedLaptops -= weight(eldest.next());
+        eldest.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private void invalidate(List<Laptop> saved) {
+    synchronized (cache) {
+      writes++;
+      Iterator<Map.Entry<LaptopFilter, List<Laptop>>> entries = cache.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<LaptopFilter, List<Laptop>> entry = entries.next();
+        for (Laptop laptop : saved) {
+          if (entry.getKey().test(laptop)) {
+            cachedLaptops -= weight(entry.getValue());
+            entries.remove();
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  private static int weight(List<Laptop> matches) {
+    return Math.max(1, matches.size());
+  }
+
+  private static final class ListCursor implements LaptopCursor {
+    private final List<Laptop> laptops;
+    private int next;
+
+    ListCursor(List<Laptop> laptops) {
+      this.laptops = laptops;
+    }
+
+    @Override
+    public boolean next(int max, LaptopStream stream) {
+      int end = (int) Math.min(laptops.size(), (long) next + max);
+      while (next < end) {
+        stream.send(laptops.get(next++));
+      }
+      return next < laptops.size();
+    }
+  }
+}
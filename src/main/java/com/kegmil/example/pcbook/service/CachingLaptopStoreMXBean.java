@@ -0,0 +1,17 @@
+package com.kegmil.example.pcbook.service;
+
+/**
+ * Counters of a {@link CachingLaptopStore}, as exposed over JMX.
+ */
+public interface CachingLaptopStoreMXBean {
+  long getHits();
+
+  long getMisses();
+
+  long getEvictions();
+
+  /**
+   * Laptops referenced by cached results, which is what bounds the cache.
+   */
+  long getCachedLaptops();
+}
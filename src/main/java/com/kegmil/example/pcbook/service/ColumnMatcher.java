@@ -0,0 +1,35 @@
+package com.kegmil.example.pcbook.service;
+
+/**
+ * The predicates of a {@link LaptopFilter} bound to {@link LaptopColumns}, in the order they run.
+ */
+final class ColumnMatcher {
+
+  private final ColumnPredicate[] predicates;
+
+  ColumnMatcher(ColumnPredicate[] predicates) {
+    this.predicates = predicates;
+  }
+
+  /**
+   * Keeps the ordinals in {@code hits[0, count)} that match, in order, and returns how many are kept.
+   */
+  int filter(int[] hits, int count) {
+    for (ColumnPredicate predicate : predicates) {
+      if (count == 0) {
+        break;
+      }
+      count = predicate.filter(hits, count);
+    }
+    return count;
+  }
+
+  boolean matches(int ordinal) {
+    for (ColumnPredicate predicate : predicates) {
+      if (!predicate.test(ordinal)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
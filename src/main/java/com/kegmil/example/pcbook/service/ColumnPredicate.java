@@ -0,0 +1,201 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.util.function.Predicate;
+
+/**
+ * One criterion of a {@link LaptopFilter}, bound to a column of {@link LaptopColumns}. Predicates
+ * narrow a batch of candidate ordinals in place, so each one runs a tight loop over its own column
+ * and only sees the rows that the predicates before it kept.
+ */
+abstract class ColumnPredicate {
+
+  /**
+   * Keeps the ordinals in {@code hits[0, count)} that match, in order, and returns how many are kept.
+   */
+  abstract int filter(int[] hits, int count);
+
+  abstract boolean test(int ordinal);
+
+  /**
+   * Returns true if the predicate needs the decoded laptop, which makes it the most expensive kind.
+   */
+  boolean decodes() {
+    return false;
+  }
+
+  static final class DoubleAtMost extends ColumnPredicate {
+    private final double[] column;
+    private final double max;
+
+    DoubleAtMost(double[] column, double max) {
+      this.column = column;
+      this.max = max;
+    }
+
+    @Override
+    int filter(int[] hits, int count) {
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        int ordinal = hits[k];
+        hits[kept] = ordinal;
+        kept += column[ordinal] <= max ? 1 : 0;
+      }
+      return kept;
+    }
+
+    @Override
+    boolean test(int ordinal) {
+      return column[ordinal] <= max;
+    }
+  }
+
+  static final class DoubleAtLeast extends ColumnPredicate {
+    private final double[] column;
+    private final double min;
+
+    DoubleAtLeast(double[] column, double min) {
+      this.column = column;
+      this.min = min;
+    }
+
+    @Override
+    int filter(int[] hits, int count) {
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        int ordinal = hits[k];
+        hits[kept] = ordinal;
+        kept += column[ordinal] >= min ? 1 : 0;
+      }
+      return kept;
+    }
+
+    @Override
+    boolean test(int ordinal) {
+      return column[ordinal] >= min;
+    }
+  }
+
+  /**
+   * Unsigned proto fields, such as cores and years, are compared as stored, which is the same for
+   * every value below 2^31.
+   */
+  static final class IntRange extends ColumnPredicate {
+    private final int[] column;
+    private final int min;
+    private final int max;
+
+    IntRange(int[] column, int min, int max) {
+      this.column = column;
+      this.min = min;
+      this.max = max;
+    }
+
+    @Override
+    int filter(int[] hits, int count) {
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        int ordinal = hits[k];
+        int value = column[ordinal];
+        hits[kept] = ordinal;
+        kept += value >= min & value <= max ? 1 : 0;
+      }
+      return kept;
+    }
+
+    @Override
+    boolean test(int ordinal) {
+      int value = column[ordinal];
+      return value >= min && value <= max;
+    }
+  }
+
+  static final class LongAtLeast extends ColumnPredicate {
+    private final long[] column;
+    private final long min;
+
+    LongAtLeast(long[] column, long min) {
+      this.column = column;
+      this.min = min;
+    }
+
+    @Override
+    int filter(int[] hits, int count) {
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        int ordinal = hits[k];
+        hits[kept] = ordinal;
+        kept += column[ordinal] >= min ? 1 : 0;
+      }
+      return kept;
+    }
+
+    @Override
+    boolean test(int ordinal) {
+      return column[ordinal] >= min;
+    }
+  }
+
+  /**
+   * Membership of a dictionary-encoded column in a set of codes.
+   */
+  static final class CodeIn extends ColumnPredicate {
+    private final int[] column;
+    private final boolean[] members;
+
+    CodeIn(int[] column, boolean[] members) {
+      this.column = column;
+      this.members = members;
+    }
+
+    @Override
+    int filter(int[] hits, int count) {
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        int ordinal = hits[k];
+        hits[kept] = ordinal;
+        kept += test(ordinal) ? 1 : 0;
+      }
+      return kept;
+    }
+
+    @Override
+    boolean test(int ordinal) {
+      int code = column[ordinal];
+      return code < members.length && members[code];
+    }
+  }
+
+  static final class Decoded extends ColumnPredicate {
+    private final LaptopColumns columns;
+    private final Predicate<Laptop> predicate;
+
+    Decoded(LaptopColumns columns, Predicate<Laptop> predicate) {
+      this.columns = columns;
+      this.predicate = predicate;
+    }
+
+    @Override
+    int filter(int[] hits, int count) {
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        int ordinal = hits[k];
+        if (predicate.test(columns.get(ordinal))) {
+          hits[kept++] = ordinal;
+        }
+      }
+      return kept;
+    }
+
+    @Override
+    boolean test(int ordinal) {
+      return predicate.test(columns.get(ordinal));
+    }
+
+    @Override
+    boolean decodes() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,531 @@
+package com.kegmil.example.pcbook.service;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Laptop store that makes an {@link InMemoryLaptopStore} durable. Every saved laptop is appended, in
+ * the {@code writeDelimitedTo} format, to a write-ahead log split into segments, and is only put in
+ * memory, where reads and watches see it, once the log is synced. Concurrent saves share one sync:
+ * the flusher waits up to the durability window for more records before forcing the segment.
+ *
+ * <p>A snapshot of the whole catalog is written periodically, after which the segments it covers are
+ * deleted. On startup the latest snapshot is memory-mapped into the in-memory store, which only builds
+ * its indexes and decodes laptops as they are read, and the segments after it are replayed.
+ */
+public class DurableLaptopStore implements LaptopStore, Closeable {
+
+  private static final Logger logger = Logger.getLogger(DurableLaptopStore.class.getName());
+
+  public static final long DEFAULT_SEGMENT_SIZE = 64 << 20;
+  public static final Duration DEFAULT_DURABILITY_WINDOW = Duration.ofMillis(2);
+  public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(10);
+
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final int REPLAY_BATCH_SIZE = 1000;
+
+  private final Path directory;
+  private final InMemoryLaptopStore store;
+  private final long segmentSize;
+  private final long durabilityWindowNanos;
+
+  // guards the segment fields and the sequence numbers
+  private final Object lock = new Object();
+  private long segment;
+  private FileChannel channel;
+  // rolled over segments that still have to be synced before they are closed
+  private final List<FileChannel> sealed = new ArrayList<>();
+  private long appended;
+  private long durable;
+  private IOException failure;
+  private boolean closed;
+
+  // IDs being saved, which are not in the store until their records are durable
+  private final ConcurrentHashMap<UUID, Boolean> reserved = new ConcurrentHashMap<>();
+  // held for reading by saves from the append until the laptop is in the store
+  private final ReadWriteLock inFlight = new ReentrantReadWriteLock();
+
+  private final Thread flusher;
+  private final ScheduledExecutorService snapshotter;
+  // first segment not covered by the latest snapshot
+  private long snapshotSegment;
+
+  public DurableLaptopStore(Path directory, InMemoryLaptopStore store) throws IOException {
+    this(directory, store, DEFAULT_SEGMENT_SIZE, DEFAULT_DURABILITY_WINDOW, DEFAULT_SNAPSHOT_INTERVAL);
+  }
+
+  /**
+   * Replays the snapshot and log in {@code directory} into {@code store}, which should be empty.
+   *
+   * @param durabilityWindow how long the flusher waits for more records before a sync; zero syncs
+   *                         as soon as a record is appended
+   */
+  public DurableLaptopStore(Path directory, InMemoryLaptopStore store, long segmentSize,
+                            Duration durabilityWindow, Duration snapshotInterval) throws IOException {
+    this.directory = directory;
+    this.store = store;
+    this.segmentSize = segmentSize;
+    this.durabilityWindowNanos = durabilityWindow.toNanos();
+
+    Files.createDirectories(directory);
+    recover();
+    channel = openSegment(segment);
+
+    flusher = new Thread(this::flushLoop, "laptop-wal-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+
+    snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "laptop-snapshotter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long interval = snapshotInterval.toMillis();
+    snapshotter.scheduleWithFixedDelay(() -> {
+      try {
+        snapshot();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "cannot write laptop snapshot", e);
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void save(Laptop laptop) throws Exception {
+    save(UUID.fromString(laptop.getId()), laptop);
+  }
+
+  @Override
+  public void save(UUID id, Laptop laptop) throws Exception {
+    if (!reserve(id)) {
+      store.metrics().saved(0, 1);
+      throw new AlreadyExistException("laptop Id already exists");
+    }
+
+    inFlight.readLock().lock();
+    try {
+      awaitDurable(append(Collections.singletonList(laptop)));
+      store.save(id, laptop);
+    } finally {
+      inFlight.readLock().unlock();
+      reserved.remove(id);
+    }
+  }
+
+  @Override
+  public BitSet saveAll(Collection<Laptop> laptops) throws Exception {
+    List<UUID> ids = new ArrayList<>(laptops.size());
+    for (Laptop laptop : laptops) {
+      ids.add(UUID.fromString(laptop.getId()));
+    }
+
+    BitSet duplicates = new BitSet(ids.size());
+    List<UUID> reservedIds = new ArrayList<>(ids.size());
+    List<Laptop> accepted = new ArrayList<>(ids.size());
+    int position = 0;
+    for (Laptop laptop : laptops) {
+      UUID id = ids.get(position);
+      if (reserve(id)) {
+        reservedIds.add(id);
+        accepted.add(laptop);
+      } else {
+        duplicates.set(position);
+      }
+      position++;
+    }
+
+    store.metrics().saved(0, duplicates.cardinality());
+    if (accepted.isEmpty()) {
+      return duplicates;
+    }
+
+    inFlight.readLock().lock();
+    try {
+      awaitDurable(append(accepted));
+      store.saveAll(accepted);
+    } finally {
+      inFlight.readLock().unlock();
+      for (UUID id : reservedIds) {
+        reserved.remove(id);
+      }
+    }
+    return duplicates;
+  }
+
+  /**
+   * Reserves a new ID until its laptop is in memory, so that a laptop is only published once it is
+   * durable and a save that fails leaves nothing behind.
+   */
+  private boolean reserve(UUID id) {
+    if (reserved.putIfAbsent(id, Boolean.TRUE) != null) {
+      return false;
+    }
+    // a save of the same ID that completed before the reservation is in memory by now
+    if (store.contains(id)) {
+      reserved.remove(id);
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public Laptop find(String id) {
+    return store.find(id);
+  }
+
+  @Override
+  public Laptop find(UUID id) {
+    return store.find(id);
+  }
+
+  @Override
+  public int count() {
+    return store.count();
+  }
+
+  @Override
+  public void search(Filter filter, LaptopStream stream) {
+    store.search(filter, stream);
+  }
+
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    return store.cursor(filter);
+  }
+
+  @Override
+  public List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    return store.searchTop(filter, ordering, limit, after);
+  }
+
+  @Override
+  public void aggregate(Filter filter, LaptopAggregation aggregation) {
+    store.aggregate(filter, aggregation);
+  }
+
+  /**
+   * Laptops are published once they are durable.
+   */
+  @Override
+  public LaptopSubscription watch(Filter filter, LaptopStream listener) {
+    return store.watch(filter, listener);
+  }
+
+  /**
+   * Writes the catalog to a new snapshot and deletes the segments and snapshots it makes obsolete.
+   */
+  public synchronized void snapshot() throws IOException {
+    long covered;
+    // waits for the saves in flight, so everything logged before the rollover is in the store;
+    // laptops saved since may end up in both, which replay tolerates
+    inFlight.writeLock().lock();
+    try {
+      synchronized (lock) {
+        if (closed) {
+          throw new IOException("laptop store is closed");
+        }
+        if (segment == snapshotSegment && channel.position() == 0) {
+          return;
+        }
+        rollOver();
+        covered = segment;
+      }
+    } finally {
+      inFlight.writeLock().unlock();
+    }
+
+    LaptopColumns columns = store.columns();
+    int size = columns.size();
+    Path temp = directory.resolve(SNAPSHOT_PREFIX + sequence(covered) + ".tmp");
+    try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      OutputStream out = new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16);
+      for (int i = 0; i < size; i++) {
+        columns.writeDelimitedTo(i, out);
+      }
+      out.flush();
+      file.force(true);
+    }
+    Path written = directory.resolve(SNAPSHOT_PREFIX + sequence(covered));
+    Files.move(temp, written, StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory();
+    if (columns.isMapped()) {
+      // laptops not decoded yet are read from the new file, so the old one is unmapped once collected
+      columns.rebase(MappedSnapshot.mapRecords(written));
+    }
+    synchronized (lock) {
+      snapshotSegment = covered;
+    }
+
+    for (Path file : list(SNAPSHOT_PREFIX)) {
+      if (sequence(file, SNAPSHOT_PREFIX) < covered) {
+        Files.delete(file);
+      }
+    }
+    for (Path file : list(SEGMENT_PREFIX)) {
+      if (sequence(file, SEGMENT_PREFIX) < covered) {
+        Files.delete(file);
+      }
+    }
+    logger.info("Wrote laptop snapshot of " + size + " laptops");
+  }
+
+  /**
+   * Returns the counters of the in-memory store, which also count the saves this store rejects as
+   * duplicates before logging them.
+   */
+  public LaptopStoreMetrics metrics() {
+    return store.metrics();
+  }
+
+  @Override
+  public void close() throws IOException {
+    snapshotter.shutdown();
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (lock) {
+      for (FileChannel old : sealed) {
+        old.close();
+      }
+      channel.close();
+    }
+  }
+
+  private long append(List<Laptop> laptops) throws IOException {
+    int length = 0;
+    for (Laptop laptop : laptops) {
+      int size = laptop.getSerializedSize();
+      length += CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    byte[] records = new byte[length];
+    CodedOutputStream out = CodedOutputStream.newInstance(records);
+    for (Laptop laptop : laptops) {
+      out.writeUInt32NoTag(laptop.getSerializedSize());
+      laptop.writeTo(out);
+    }
+
+    synchronized (lock) {
+      if (closed) {
+        throw new IOException("laptop store is closed");
+      }
+      if (channel.position() > 0 && channel.position() + length > segmentSize) {
+        rollOver();
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(records);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      appended++;
+      lock.notifyAll();
+      return appended;
+    }
+  }
+
+  private void awaitDurable(long sequence) throws IOException, InterruptedException {
+    synchronized (lock) {
+      while (durable < sequence) {
+        if (failure != null) {
+          throw new IOException("cannot sync laptop log", failure);
+        }
+        lock.wait();
+      }
+    }
+  }
+
+  private void flushLoop() {
+    while (true) {
+      long target;
+      FileChannel current;
+      List<FileChannel> toClose;
+      synchronized (lock) {
+        while (appended == durable && !closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (appended == durable) {
+          return;
+        }
+      }
+
+      // let concurrent saves join this sync
+      if (durabilityWindowNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(durabilityWindowNanos);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+
+      synchronized (lock) {
+        target = appended;
+        current = channel;
+        toClose = new ArrayList<>(sealed);
+        sealed.clear();
+      }
+
+      try {
+        for (FileChannel old : toClose) {
+          old.force(false);
+          old.close();
+        }
+        current.force(false);
+      } catch (IOException e) {
+        synchronized (lock) {
+          failure = e;
+          lock.notifyAll();
+        }
+        logger.log(Level.SEVERE, "cannot sync laptop log", e);
+        return;
+      }
+
+      synchronized (lock) {
+        durable = target;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  // called with the lock held
+  private void rollOver() throws IOException {
+    sealed.add(channel);
+    segment++;
+    channel = openSegment(segment);
+  }
+
+  private FileChannel openSegment(long sequence) throws IOException {
+    FileChannel segment = FileChannel.open(directory.resolve(SEGMENT_PREFIX + sequence(sequence)),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    // records synced to the segment are only durable once its directory entry is
+    syncDirectory();
+    return segment;
+  }
+
+  private void syncDirectory() throws IOException {
+    try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    }
+  }
+
+  private void recover() throws IOException {
+    List<Path> snapshots = list(SNAPSHOT_PREFIX);
+    if (!snapshots.isEmpty()) {
+      Path latest = snapshots.get(snapshots.size() - 1);
+      snapshotSegment = sequence(latest, SNAPSHOT_PREFIX);
+      store.load(MappedSnapshot.map(latest));
+    }
+    segment = snapshotSegment;
+
+    List<Path> segments = list(SEGMENT_PREFIX);
+    for (Path file : segments) {
+      long sequence = sequence(file, SEGMENT_PREFIX);
+      if (sequence >= snapshotSegment) {
+        replaySegment(file);
+      }
+      segment = Math.max(segment, sequence + 1);
+    }
+    logger.info("Recovered " + store.columns().size() + " laptops from " + directory);
+  }
+
+  private void replaySegment(Path file) throws IOException {
+    byte[] bytes = Files.readAllBytes(file);
+    CodedInputStream in = CodedInputStream.newInstance(bytes);
+    List<Laptop> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+    while (!in.isAtEnd()) {
+      int start = in.getTotalBytesRead();
+      try {
+        int limit = in.pushLimit(in.readRawVarint32());
+        batch.add(Laptop.parseFrom(in));
+        in.popLimit(limit);
+      } catch (InvalidProtocolBufferException e) {
+        // a record torn by a crash was never acknowledged, so it is dropped; this holds for a segment
+        // that was rolled over too, as a crash may come before the flusher synced it
+        logger.warning("Truncating torn record at " + start + " in " + file);
+        try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          truncated.truncate(start);
+          truncated.force(true);
+        }
+        break;
+      }
+
+      if (batch.size() == REPLAY_BATCH_SIZE) {
+        replay(batch);
+      }
+    }
+    replay(batch);
+  }
+
+  private void replay(List<Laptop> batch) throws IOException {
+    try {
+      // duplicates come from laptops saved while a snapshot was taken, and are skipped
+      store.saveAll(batch);
+    } catch (Exception e) {
+      throw new IOException("cannot replay laptops", e);
+    }
+    batch.clear();
+  }
+
+  private List<Path> list(String prefix) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> paths = Files.list(directory)) {
+      paths.filter(path -> {
+        String name = path.getFileName().toString();
+        return name.startsWith(prefix) && !name.endsWith(".tmp");
+      }).forEach(files::add);
+    }
+    // sequences are zero padded, so names sort in log order
+    Collections.sort(files);
+    return files;
+  }
+
+  private static String sequence(long sequence) {
+    return String.format("%020d", sequence);
+  }
+
+  private static long sequence(Path file, String prefix) {
+    return Long.parseLong(file.getFileName().toString().substring(prefix.length()));
+  }
+}
@@ -0,0 +1,188 @@
+package com.kegmil.example.pcbook.service;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Runs the handler and listener callbacks of each call on the executor of a {@link Lane} chosen by
+ * full method name, in order, one at a time. The server itself can then run on a direct executor, so
+ * that the transport only enqueues work and never runs handler code.
+ *
+ * <p>Calls are shed when they start: a lane admits a bounded number of calls at a time, and a call
+ * that does not fit is closed with {@code RESOURCE_EXHAUSTED} without running anything. As each
+ * admitted call has at most one task in its lane's executor, that executor need not reject any, so
+ * an admitted call always sees its messages, half-close and cancellation.
+ */
+class ExecutorHandoffInterceptor implements ServerInterceptor {
+
+  private final Function<String, Lane> lanes;
+
+  ExecutorHandoffInterceptor(Function<String, Lane> lanes) {
+    this.lanes = lanes;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    Lane lane = lanes.apply(call.getMethodDescriptor().getFullMethodName());
+    if (lane.calls != null && !lane.calls.tryAcquire()) {
+      call.close(Status.RESOURCE_EXHAUSTED.withDescription("server is overloaded"), new Metadata());
+      return new ServerCall.Listener<ReqT>() {
+      };
+    }
+
+    HandoffListener<ReqT, RespT> listener = new HandoffListener<>(call, lane);
+    listener.execute(() -> listener.delegate = next.startCall(listener.call, headers));
+    return listener;
+  }
+
+  /**
+   * An executor and the most calls it runs at a time.
+   */
+  static final class Lane {
+    private final Executor executor;
+    // null when calls are not limited
+    private final Semaphore calls;
+
+    /**
+     * @param executor must not reject tasks while the server runs
+     */
+    Lane(Executor executor, int maxCalls) {
+      this.executor = executor;
+      this.calls = new Semaphore(maxCalls);
+    }
+
+    Lane(Executor executor) {
+      this.executor = executor;
+      this.calls = null;
+    }
+  }
+
+  private static final class HandoffListener<ReqT, RespT> extends ServerCall.Listener<ReqT> implements Runnable {
+    private final Lane lane;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final ServerCall<ReqT, RespT> call;
+    private boolean running;
+    private boolean closed;
+    private boolean stopped;
+    private boolean released;
+    // only accessed by tasks, which never run concurrently
+    private ServerCall.Listener<ReqT> delegate;
+
+    HandoffListener(ServerCall<ReqT, RespT> call, Lane lane) {
+      this.lane = lane;
+      this.call = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+        @Override
+        public void close(Status status, Metadata trailers) {
+          synchronized (HandoffListener.this) {
+            if (closed) {
+              return;
+            }
+            closed = true;
+          }
+          // a call that is done no longer counts against its lane, even before its last callbacks
+          release();
+          super.close(status, trailers);
+        }
+      };
+    }
+
+    void execute(Runnable task) {
+      synchronized (this) {
+        if (stopped) {
+          return;
+        }
+        tasks.add(task);
+        if (running) {
+          return;
+        }
+        running = true;
+      }
+
+      try {
+        lane.executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        // only a lane that is shutting down rejects; handler code never runs on the transport thread
+        synchronized (this) {
+          stopped = true;
+          tasks.clear();
+          running = false;
+        }
+        call.close(Status.UNAVAILABLE.withDescription("server is shutting down"), new Metadata());
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Runnable task;
+        synchronized (this) {
+          task = tasks.poll();
+          if (task == null) {
+            running = false;
+            return;
+          }
+        }
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          call.close(Status.INTERNAL.withCause(e).withDescription(e.getMessage()), new Metadata());
+        }
+      }
+    }
+
+    private void release() {
+      synchronized (this) {
+        if (released) {
+          return;
+        }
+        released = true;
+      }
+      if (lane.calls != null) {
+        lane.calls.release();
+      }
+    }
+
+    @Override
+    public void onMessage(ReqT message) {
+      execute(() -> delegate.onMessage(message));
+    }
+
+    @Override
+    public void onHalfClose() {
+      execute(() -> delegate.onHalfClose());
+    }
+
+    @Override
+    public void onCancel() {
+      execute(() -> {
+        try {
+          delegate.onCancel();
+        } finally {
+          release();
+        }
+      });
+    }
+
+    @Override
+    public void onComplete() {
+      execute(() -> delegate.onComplete());
+    }
+
+    @Override
+    public void onReady() {
+      execute(() -> delegate.onReady());
+    }
+  }
+}
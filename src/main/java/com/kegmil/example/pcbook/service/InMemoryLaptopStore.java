@@ -2,89 +2,202 @@ package com.kegmil.example.pcbook.service;
 
 import com.kegmil.example.pcbook.pb.Filter;
 import com.kegmil.example.pcbook.pb.Laptop;
-import com.kegmil.example.pcbook.pb.Memory;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
 
 public class InMemoryLaptopStore implements LaptopStore {
 
-  private ConcurrentMap<String, Laptop> data;
+  private UuidIndex data;
+  private LaptopColumns columns;
+  private final LaptopStoreMetrics metrics;
+  private final LaptopSubscriptions subscriptions = new LaptopSubscriptions();
 
   public InMemoryLaptopStore() {
-    data = new ConcurrentHashMap<>(0);
+    this(false);
+  }
+
+  public InMemoryLaptopStore(boolean preEncodeResponses) {
+    data = new UuidIndex();
+    metrics = new LaptopStoreMetrics(data::size, this::indexBytes);
+    columns = new LaptopColumns(preEncodeResponses, metrics);
   }
 
   @Override
   public void save(Laptop laptop) throws Exception {
-    if (data.containsKey(laptop.getId())) {
+    save(UUID.fromString(laptop.getId()), laptop);
+  }
+
+  @Override
+  public void save(UUID id, Laptop laptop) throws Exception {
+    byte[] response = columns.encodeResponse(laptop);
+
+    // protobuf messages are immutable, so the instance is shared with callers instead of copied
+    int ordinal = data.putIfAbsent(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+        () -> columns.add(laptop, response));
+    if (ordinal < 0) {
+      metrics.saved(0, 1);
       throw new AlreadyExistException("laptop Id already exists");
     }
+    metrics.saved(1, 0);
+    onSaved(ordinal, ordinal + 1);
+    subscriptions.publish(laptop);
+  }
+
+  @Override
+  public BitSet saveAll(Collection<Laptop> laptops) throws Exception {
+    Laptop[] batch = laptops.toArray(new Laptop[0]);
+    long[] msbs = new long[batch.length];
+    long[] lsbs = new long[batch.length];
+    byte[][] responses = new byte[batch.length][];
+    for (int i = 0; i < batch.length; i++) {
+      UUID id = UUID.fromString(batch[i].getId());
+      msbs[i] = id.getMostSignificantBits();
+      lsbs[i] = id.getLeastSignificantBits();
+      responses[i] = columns.encodeResponse(batch[i]);
+    }
+
+    // columns are only appended under the index write lock, so the batch gets consecutive ordinals
+    int[] ordinals = new int[batch.length];
+    data.putAllIfAbsent(msbs, lsbs, i -> columns.add(batch[i], responses[i]), ordinals);
+
+    BitSet duplicates = new BitSet(batch.length);
+    int from = -1;
+    int to = -1;
+    for (int i = 0; i < batch.length; i++) {
+      if (ordinals[i] < 0) {
+        duplicates.set(i);
+      } else {
+        if (from < 0) {
+          from = ordinals[i];
+        }
+        to = ordinals[i] + 1;
+      }
+    }
 
-    // deep copy
-    Laptop other = laptop.toBuilder().build();
-    data.put(other.getId(), other);
+    int duplicateCount = duplicates.cardinality();
+    metrics.saved(batch.length - duplicateCount, duplicateCount);
+    if (from >= 0) {
+      onSaved(from, to);
+    }
+    if (!subscriptions.isEmpty()) {
+      for (int i = 0; i < batch.length; i++) {
+        if (ordinals[i] >= 0) {
+          subscriptions.publish(batch[i]);
+        }
+      }
+    }
+    return duplicates;
   }
 
   @Override
   public Laptop find(String id) {
-    if (!data.containsKey(id)) {
+    int ordinal = ordinal(id);
+    if (ordinal < 0) {
+      return null;
+    }
+    return columns.get(ordinal);
+  }
+
+  @Override
+  public Laptop find(UUID id) {
+    int ordinal = data.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    if (ordinal < 0) {
       return null;
     }
+    return columns.get(ordinal);
+  }
 
-    // deep copy
-    return data.get(id).toBuilder().build();
+  boolean contains(UUID id) {
+    return data.get(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+  }
+
+  @Override
+  public int count() {
+    return data.size();
   }
 
   @Override
   public void search(Filter filter, LaptopStream stream) {
-    for (Map.Entry<String, Laptop> entry : data.entrySet()) {
-      Laptop laptop = entry.getValue();
-      if (isQualified(filter, laptop)) {
-        stream.send(laptop.toBuilder().build());
-      }
-    }
+    columns.search(filter, stream);
   }
 
-  private boolean isQualified(Filter filter, Laptop laptop) {
-    if (laptop.getPriceUsd() > filter.getMaxPriceUsd()) {
-      return false;
-    }
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    return columns.cursor(filter);
+  }
 
-    if (laptop.getCpu().getNumberCores() < filter.getMinCpuCores()) {
-      return false;
-    }
+  @Override
+  public List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    TopLaptops top = new TopLaptops(ordering, limit, after);
+    columns.searchTop(filter, ordering, top);
+    return top.result();
+  }
+
+  @Override
+  public void aggregate(Filter filter, LaptopAggregation aggregation) {
+    columns.aggregate(filter, aggregation);
+  }
+
+  @Override
+  public LaptopSubscription watch(Filter filter, LaptopStream listener) {
+    return subscriptions.add(filter, listener);
+  }
 
-    if (laptop.getCpu().getMinGhz() < filter.getMinCpuGhz()) {
-      return false;
+  /**
+   * Loads a snapshot into this store, which must be empty. Only the ID index and the filter columns
+   * are built; laptops are decoded when they are first returned.
+   */
+  void load(MappedSnapshot snapshot) throws IOException {
+    int count = snapshot.size();
+    int[] ordinals = new int[count];
+    columns.load(snapshot);
+    data.putAllIfAbsent(snapshot.msbs, snapshot.lsbs, i -> i, ordinals);
+    for (int i = 0; i < count; i++) {
+      if (ordinals[i] < 0) {
+        throw new IOException("duplicate laptop in snapshot at record " + i);
+      }
     }
 
-    if (toBit(laptop.getRam()) < toBit(filter.getMinRam())) {
-      return false;
+    if (count > 0) {
+      onSaved(0, count);
     }
+  }
 
-    return true;
-  }
-
-  private long toBit(Memory memory) {
-    long value = memory.getValue();
-
-    switch (memory.getUnit()) {
-      case BIT:
-        return value;
-      case BYTE:
-        return value << 3;
-      case KILOBYTE:
-        return value << 13;
-      case MEGABYTE:
-        return value << 23;
-      case GIGABYTE:
-        return value << 33;
-      case TERABYTE:
-        return value << 43;
-      default:
-        return 0;
+  private int ordinal(String id) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return -1;
     }
+    return data.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Called after the laptops with ordinals {@code [from, to)} have been published in the columns.
+   */
+  void onSaved(int from, int to) {
+  }
+
+  /**
+   * Bytes held by the secondary indexes of a subclass, reported in the metrics.
+   */
+  long indexBytes() {
+    return 0;
+  }
+
+  LaptopColumns columns() {
+    return columns;
+  }
+
+  /**
+   * Returns the counters of this store, which can be registered as an MXBean.
+   */
+  public LaptopStoreMetrics metrics() {
+    return metrics;
   }
 }
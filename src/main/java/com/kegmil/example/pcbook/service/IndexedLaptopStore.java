@@ -0,0 +1,218 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.util.List;
+
+/**
+ * Laptop store that keeps a sorted index per {@link Filter} field and answers a search by walking
+ * only the range of the most selective predicate, checking the others as residual predicates.
+ */
+public class IndexedLaptopStore extends InMemoryLaptopStore {
+
+  // An index walk touches the columns in random order, a full scan sequentially.
+  private static final int RANDOM_ACCESS_COST = 4;
+  private static final int ROWS_PER_CALL = 4096;
+
+  private final SortedColumnIndex priceIndex = new SortedColumnIndex();
+  private final SortedColumnIndex coresIndex = new SortedColumnIndex();
+  private final SortedColumnIndex cpuGhzIndex = new SortedColumnIndex();
+  private final SortedColumnIndex ramIndex = new SortedColumnIndex();
+
+  @Override
+  void onSaved(int from, int to) {
+    LaptopColumns columns = columns();
+    int count = to - from;
+    long[] prices = new long[count];
+    long[] cores = new long[count];
+    long[] cpuGhz = new long[count];
+    long[] ram = new long[count];
+    for (int i = 0; i < count; i++) {
+      int ordinal = from + i;
+      prices[i] = SortedColumnIndex.sortable(columns.price(ordinal));
+      cores[i] = columns.cores(ordinal);
+      cpuGhz[i] = SortedColumnIndex.sortable(columns.minGhz(ordinal));
+      ram[i] = columns.ramBits(ordinal);
+    }
+    priceIndex.addAll(prices, ordinals(from, count), count);
+    coresIndex.addAll(cores, ordinals(from, count), count);
+    cpuGhzIndex.addAll(cpuGhz, ordinals(from, count), count);
+    ramIndex.addAll(ram, ordinals(from, count), count);
+  }
+
+  @Override
+  long indexBytes() {
+    return priceIndex.bytes() + coresIndex.bytes() + cpuGhzIndex.bytes() + ramIndex.bytes();
+  }
+
+  private static int[] ordinals(int from, int count) {
+    int[] ordinals = new int[count];
+    for (int i = 0; i < count; i++) {
+      ordinals[i] = from + i;
+    }
+    return ordinals;
+  }
+
+  @Override
+  public void search(Filter filter, LaptopStream stream) {
+    cursor(filter).forEachRemaining(stream);
+  }
+
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    LaptopColumns columns = columns();
+    LaptopFilter compiled = LaptopFilter.compile(filter);
+
+    // price is an upper bound, the other predicates are lower bounds
+    Range best = Range.atMost(priceIndex.runs(), SortedColumnIndex.sortable(compiled.maxPrice));
+    best = Range.narrower(best, Range.atLeast(coresIndex.runs(), compiled.minCores));
+    best = Range.narrower(best, Range.atLeast(cpuGhzIndex.runs(), SortedColumnIndex.sortable(compiled.minCpuGhz)));
+    best = Range.narrower(best, Range.atLeast(ramIndex.runs(), compiled.minRam));
+
+    if ((long) best.size() * RANDOM_ACCESS_COST >= best.runs.size()) {
+      return super.cursor(filter);
+    }
+
+    ColumnMatcher matcher = columns.matcher(compiled, true);
+    Range range = best;
+    int[] position = {0};
+    int end = range.size();
+    LaptopStoreMetrics metrics = metrics();
+    return (max, stream) -> {
+      int sent = 0;
+      int i = position[0];
+      int limit = Math.min(end, i + ROWS_PER_CALL);
+      for (; i < limit && sent < max; i++) {
+        int ordinal = range.ordinal(i);
+        if (matcher.matches(ordinal)) {
+          columns.send(ordinal, stream);
+          sent++;
+        }
+      }
+      metrics.scanned(i - position[0], sent);
+      position[0] = i;
+      return i < end;
+    };
+  }
+
+  @Override
+  public List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    // walk the index of the sort field within its own predicate's range
+    Range range;
+    switch (ordering.getOrderBy()) {
+      case PRICE:
+        range = Range.atMost(priceIndex.runs(), SortedColumnIndex.sortable(filter.getMaxPriceUsd()));
+        break;
+      case CPU_GHZ:
+        range = Range.atLeast(cpuGhzIndex.runs(), SortedColumnIndex.sortable(filter.getMinCpuGhz()));
+        break;
+      case RAM:
+        range = Range.atLeast(ramIndex.runs(), LaptopColumns.toBit(filter.getMinRam()));
+        break;
+      default:
+        return super.searchTop(filter, ordering, limit, after);
+    }
+
+    if (after != null) {
+      range = ordering.isDescending() ? range.below(after.getKey()) : range.from(after.getKey());
+    }
+
+    LaptopColumns columns = columns();
+    ColumnMatcher matcher = columns.matcher(LaptopFilter.compile(filter), true);
+
+    // merge the base and pending runs in key order
+    SortedColumnIndex.Run base = range.runs.base;
+    SortedColumnIndex.Run pending = range.runs.pending;
+    boolean descending = ordering.isDescending();
+    int b = descending ? range.baseTo - 1 : range.baseFrom;
+    int p = descending ? range.pendingTo - 1 : range.pendingFrom;
+    int step = descending ? -1 : 1;
+    TopLaptops top = new TopLaptops(ordering, limit, after);
+    int scanned = 0;
+    int hits = 0;
+    while (true) {
+      boolean hasBase = b >= range.baseFrom && b < range.baseTo;
+      boolean hasPending = p >= range.pendingFrom && p < range.pendingTo;
+      if (!hasBase && !hasPending) {
+        break;
+      }
+
+      boolean fromBase = !hasPending
+          || (hasBase && (descending ? base.keys[b] >= pending.keys[p] : base.keys[b] <= pending.keys[p]));
+      long key = fromBase ? base.keys[b] : pending.keys[p];
+      if (top.isClosedAfter(key)) {
+        break;
+      }
+
+      int ordinal;
+      if (fromBase) {
+        ordinal = base.ordinals[b];
+        b += step;
+      } else {
+        ordinal = pending.ordinals[p];
+        p += step;
+      }
+      scanned++;
+      if (matcher.matches(ordinal)) {
+        top.send(columns.get(ordinal));
+        hits++;
+      }
+    }
+    metrics().scanned(scanned, hits);
+    return top.result();
+  }
+
+  /**
+   * A key range of an index, as a range of its base run followed by a range of its pending run.
+   */
+  private static final class Range {
+    final SortedColumnIndex.Runs runs;
+    final int baseFrom;
+    final int baseTo;
+    final int pendingFrom;
+    final int pendingTo;
+
+    private Range(SortedColumnIndex.Runs runs, int baseFrom, int baseTo, int pendingFrom, int pendingTo) {
+      this.runs = runs;
+      this.baseFrom = baseFrom;
+      this.baseTo = baseTo;
+      this.pendingFrom = pendingFrom;
+      this.pendingTo = pendingTo;
+    }
+
+    static Range atMost(SortedColumnIndex.Runs runs, long key) {
+      return new Range(runs, 0, runs.base.upperBound(key), 0, runs.pending.upperBound(key));
+    }
+
+    static Range atLeast(SortedColumnIndex.Runs runs, long key) {
+      return new Range(runs, runs.base.lowerBound(key), runs.base.size(),
+          runs.pending.lowerBound(key), runs.pending.size());
+    }
+
+    static Range narrower(Range a, Range b) {
+      return b.size() < a.size() ? b : a;
+    }
+
+    /** This range without keys {@code > key}. */
+    Range below(long key) {
+      return new Range(runs, baseFrom, Math.min(baseTo, runs.base.upperBound(key)),
+          pendingFrom, Math.min(pendingTo, runs.pending.upperBound(key)));
+    }
+
+    /** This range without keys {@code < key}. */
+    Range from(long key) {
+      return new Range(runs, Math.max(baseFrom, runs.base.lowerBound(key)), baseTo,
+          Math.max(pendingFrom, runs.pending.lowerBound(key)), pendingTo);
+    }
+
+    int size() {
+      return Math.max(0, baseTo - baseFrom) + Math.max(0, pendingTo - pendingFrom);
+    }
+
+    int ordinal(int i) {
+      int inBase = baseTo - baseFrom;
+      return i < inBase ? runs.base.ordinals[baseFrom + i] : runs.pending.ordinals[pendingFrom + i - inBase];
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.AggregateLaptopsRequest;
+import com.kegmil.example.pcbook.pb.AggregateLaptopsResponse;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Counts and price statistics of the laptops matching a filter, accumulated by
+ * {@link LaptopStore#aggregate}. Only the requested facets are counted.
+ */
+public final class LaptopAggregation {
+
+  private final Set<AggregateLaptopsRequest.Facet> facets;
+  private final double priceBandUsd;
+
+  private long count;
+  private double minPrice = Double.POSITIVE_INFINITY;
+  private double maxPrice = Double.NEGATIVE_INFINITY;
+  private double sumPrice;
+  private final Map<String, Long> brands = new TreeMap<>();
+  private final LongCounts ram = new LongCounts();
+  private final LongCounts priceBands = new LongCounts();
+  private final LongCounts releaseYears = new LongCounts();
+
+  public LaptopAggregation(Collection<AggregateLaptopsRequest.Facet> facets, double priceBandUsd) {
+    if (!(priceBandUsd > 0)) {
+      throw new IllegalArgumentException("price band must be positive");
+    }
+    this.facets = facets.isEmpty()
+        ? EnumSet.noneOf(AggregateLaptopsRequest.Facet.class)
+        : EnumSet.copyOf(facets);
+    this.priceBandUsd = priceBandUsd;
+  }
+
+  public void add(Laptop laptop) {
+    double price = laptop.getPriceUsd();
+    addTotals(1, price, price, price);
+    if (byBrand()) {
+      addBrand(laptop.getBrand(), 1);
+    }
+    if (byRam()) {
+      addRam(LaptopColumns.toBit(laptop.getRam()));
+    }
+    if (byPriceBand()) {
+      addPriceBand(price);
+    }
+    if (byReleaseYear()) {
+      addReleaseYear(laptop.getReleaseYear());
+    }
+  }
+
+  public long count() {
+    return count;
+  }
+
+  boolean byBrand() {
+    return facets.contains(AggregateLaptopsRequest.Facet.BRAND);
+  }
+
+  boolean byRam() {
+    return facets.contains(AggregateLaptopsRequest.Facet.RAM);
+  }
+
+  boolean byPriceBand() {
+    return facets.contains(AggregateLaptopsRequest.Facet.PRICE_BAND);
+  }
+
+  boolean byReleaseYear() {
+    return facets.contains(AggregateLaptopsRequest.Facet.RELEASE_YEAR);
+  }
+
+  void addTotals(long count, double minPrice, double maxPrice, double sumPrice) {
+    this.count += count;
+    this.minPrice = Math.min(this.minPrice, minPrice);
+    this.maxPrice = Math.max(this.maxPrice, maxPrice);
+    this.sumPrice += sumPrice;
+  }
+
+  void addBrand(String brand, long count) {
+    brands.merge(brand, count, Long::sum);
+  }
+
+  void addRam(long bits) {
+    ram.add(bits, 1);
+  }
+
+  void addPriceBand(double price) {
+    priceBands.add((long) Math.floor(price / priceBandUsd), 1);
+  }
+
+  void addReleaseYear(int year) {
+    releaseYears.add(year, 1);
+  }
+
+  /**
+   * Returns the response with the facets in the requested order.
+   */
+  public AggregateLaptopsResponse toResponse(Collection<AggregateLaptopsRequest.Facet> requested) {
+    AggregateLaptopsResponse.Builder response = AggregateLaptopsResponse.newBuilder().setCount(count);
+    if (count > 0) {
+      response.setMinPriceUsd(minPrice)
+          .setMaxPriceUsd(maxPrice)
+          .setAvgPriceUsd(sumPrice / count);
+    }
+
+    for (AggregateLaptopsRequest.Facet facet : requested) {
+      AggregateLaptopsResponse.FacetCounts.Builder counts = response.addFacetsBuilder().setFacet(facet);
+      switch (facet) {
+        case BRAND:
+          brands.forEach((brand, n) -> counts.addBucketsBuilder().setBrand(brand).setCount(n));
+          break;
+        case RAM:
+          ram.forEachSorted((bits, n) -> counts.addBucketsBuilder().setRam(toMemory(bits)).setCount(n));
+          break;
+        case PRICE_BAND:
+          priceBands.forEachSorted((band, n) ->
+              counts.addBucketsBuilder().setMinPriceUsd(band * priceBandUsd).setCount(n));
+          break;
+        case RELEASE_YEAR:
+          releaseYears.forEachSorted((year, n) ->
+              counts.addBucketsBuilder().setReleaseYear((int) year).setCount(n));
+          break;
+        default:
+          throw new IllegalArgumentException("unknown facet: " + facet);
+      }
+    }
+    return response.build();
+  }
+
+  // the largest unit that represents the size exactly
+  private static Memory toMemory(long bits) {
+    Memory.Unit[] units = {Memory.Unit.TERABYTE, Memory.Unit.GIGABYTE, Memory.Unit.MEGABYTE,
+        Memory.Unit.KILOBYTE, Memory.Unit.BYTE};
+    for (Memory.Unit unit : units) {
+      long unitBits = LaptopColumns.toBit(1, unit);
+      if (bits != 0 && bits % unitBits == 0) {
+        return Memory.newBuilder().setValue(bits / unitBits).setUnit(unit).build();
+      }
+    }
+    return Memory.newBuilder().setValue(bits).setUnit(bits == 0 ? Memory.Unit.UNKNOWN : Memory.Unit.BIT).build();
+  }
+
+  /**
+   * Open-addressing map from a long key to a count, so that counting a match does not box.
+   */
+  private static final class LongCounts {
+    private long[] keys = new long[16];
+    private long[] counts = new long[16];
+    private boolean[] used = new boolean[16];
+    private int size;
+
+    void add(long key, long n) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (used[slot] && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (!used[slot]) {
+        used[slot] = true;
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+          counts[slot] = n;
+          resize();
+          return;
+        }
+      }
+      counts[slot] += n;
+    }
+
+    void forEachSorted(KeyCount action) {
+      long[] sorted = new long[size];
+      int k = 0;
+      for (int i = 0; i < keys.length; i++) {
+        if (used[i]) {
+          sorted[k++] = keys[i];
+        }
+      }
+      Arrays.sort(sorted);
+      for (long key : sorted) {
+        action.accept(key, get(key));
+      }
+    }
+
+    private long get(long key) {
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != key || !used[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      return counts[slot];
+    }
+
+    private void resize() {
+      long[] oldKeys = keys;
+      long[] oldCounts = counts;
+      boolean[] oldUsed = used;
+      keys = new long[oldKeys.length << 1];
+      counts = new long[oldKeys.length << 1];
+      used = new boolean[oldKeys.length << 1];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i]) {
+          add(oldKeys[i], oldCounts[i]);
+        }
+      }
+    }
+
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  @FunctionalInterface
+  private interface KeyCount {
+    void accept(long key, long count);
+  }
+}
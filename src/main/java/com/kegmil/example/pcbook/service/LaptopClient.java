@@ -2,6 +2,7 @@ package com.kegmil.example.pcbook.service;
 
 import com.kegmil.example.pcbook.pb.CreateLaptopRequest;
 import com.kegmil.example.pcbook.pb.CreateLaptopResponse;
+import com.kegmil.example.pcbook.pb.CreateLaptopsResponse;
 import com.kegmil.example.pcbook.pb.Filter;
 import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
 import com.kegmil.example.pcbook.pb.Memory;
@@ -13,9 +14,13 @@ import io.grpc.ManagedChannelBuilder;
 import com.kegmil.example.pcbook.pb.Laptop;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,11 +29,13 @@ public class LaptopClient {
 
   private final ManagedChannel channel;
   private final LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub;
+  private final LaptopServiceGrpc.LaptopServiceStub asyncStub;
 
   public LaptopClient(String host, int port) {
     channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
 
     blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+    asyncStub = LaptopServiceGrpc.newStub(channel);
   }
 
   public void shutdown() throws InterruptedException {
@@ -56,6 +63,50 @@ public class LaptopClient {
     logger.info("laptop created with ID: " + response.getId());
   }
 
+  /**
+   * Uploads laptops in client-streaming calls of {@code batchSize} laptops each, keeping up to
+   * {@code maxInFlight} calls open at the same time. Returns the number of laptops created.
+   */
+  public int createLaptops(Iterator<Laptop> laptops, int batchSize, int maxInFlight) throws InterruptedException {
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    AtomicInteger created = new AtomicInteger();
+    AtomicInteger rejected = new AtomicInteger();
+
+    while (laptops.hasNext()) {
+      inFlight.acquire();
+      StreamObserver<CreateLaptopRequest> requestObserver = asyncStub.createLaptops(
+          new StreamObserver<CreateLaptopsResponse>() {
+            @Override
+            public void onNext(CreateLaptopsResponse response) {
+              created.addAndGet(response.getCreatedCount());
+              rejected.addAndGet(response.getResultsCount() - response.getCreatedCount());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+              logger.log(Level.SEVERE, "batch upload failed: " + t.getMessage());
+              inFlight.release();
+            }
+
+            @Override
+            public void onCompleted() {
+              inFlight.release();
+            }
+          });
+
+      for (int i = 0; i < batchSize && laptops.hasNext(); i++) {
+        requestObserver.onNext(CreateLaptopRequest.newBuilder().setLaptop(laptops.next()).build());
+      }
+      requestObserver.onCompleted();
+    }
+
+    inFlight.acquire(maxInFlight);
+    inFlight.release(maxInFlight);
+
+    logger.info("laptops uploaded: " + created.get() + " created, " + rejected.get() + " rejected");
+    return created.get();
+  }
+
   private void searchLaptop(Filter filter) {
     logger.info("Search started");
 
@@ -71,7 +122,12 @@ public class LaptopClient {
     logger.info("Search completed");
   }
 
-  public static void main(String[] args) throws InterruptedException {
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && "load".equals(args[0])) {
+      LaptopLoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+
     LaptopClient client = new LaptopClient("0.0.0.0", 6565);
     Generator generator = new Generator();
 
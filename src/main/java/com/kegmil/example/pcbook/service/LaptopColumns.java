@@ -0,0 +1,552 @@
+package com.kegmil.example.pcbook.service;
+
+import com.google.protobuf.CodedOutputStream;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest.OrderBy;
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only columnar copy of the fields used by {@link Filter}, addressed by a dense ordinal.
+ *
+ * <p>There is a single writer at a time ({@link #add} is synchronized). Readers need no lock: the
+ * columns of ordinals below a published {@link #size()} are never modified, and the arrays are only
+ * ever replaced by larger copies of themselves.
+ *
+ * <p>Laptops loaded from a {@link MappedSnapshot} are only decoded the first time they are read, and
+ * the snapshot is dropped, which releases its mapping, once all of them have been.
+ */
+class LaptopColumns {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int SCAN_BATCH = 256;
+  private static final int MAX_ROWS_PER_CALL = 16 * SCAN_BATCH;
+  private static final int SELECTIVITY_SAMPLE = 512;
+
+  private final PagedArray<Laptop> laptops = new PagedArray<>(INITIAL_CAPACITY);
+  private volatile double[] prices;
+  private volatile int[] cores;
+  private volatile double[] minGhz;
+  private volatile long[] ramBits;
+  private volatile int[] brands;
+  private volatile int[] releaseYears;
+  private volatile double[] weightKg;
+  private volatile int[] screenWidths;
+  private volatile int[] screenHeights;
+  private volatile StringDictionary brandDictionary = new StringDictionary();
+  private final PagedArray<byte[]> responses;
+  private volatile int size;
+  // source of the laptops with ordinals below its size that have not been decoded yet, dropped once
+  // they all are so that the mapping can be released
+  private volatile MappedSnapshot snapshot;
+  private final AtomicInteger undecoded = new AtomicInteger();
+  private final LaptopStoreMetrics metrics;
+
+  LaptopColumns(boolean encodeResponses, LaptopStoreMetrics metrics) {
+    this.metrics = metrics;
+    prices = new double[INITIAL_CAPACITY];
+    cores = new int[INITIAL_CAPACITY];
+    minGhz = new double[INITIAL_CAPACITY];
+    ramBits = new long[INITIAL_CAPACITY];
+    brands = new int[INITIAL_CAPACITY];
+    releaseYears = new int[INITIAL_CAPACITY];
+    weightKg = new double[INITIAL_CAPACITY];
+    screenWidths = new int[INITIAL_CAPACITY];
+    screenHeights = new int[INITIAL_CAPACITY];
+    responses = encodeResponses ? new PagedArray<>(INITIAL_CAPACITY) : null;
+  }
+
+  int add(Laptop laptop) {
+    return add(laptop, encodeResponse(laptop));
+  }
+
+  /**
+   * Encodes the response for {@link #add(Laptop, byte[])} so that callers can do it before taking
+   * their own locks. Returns null if this instance does not encode responses.
+   */
+  byte[] encodeResponse(Laptop laptop) {
+    if (responses == null) {
+      return null;
+    }
+    return SearchLaptopResponse.newBuilder().setLaptop(laptop).build().toByteArray();
+  }
+
+  synchronized int add(Laptop laptop, byte[] response) {
+    int ordinal = size;
+    if (ordinal == prices.length) {
+      grow(ordinal << 1);
+    }
+
+    laptops.set(ordinal, laptop);
+    prices[ordinal] = laptop.getPriceUsd();
+    cores[ordinal] = laptop.getCpu().getNumberCores();
+    minGhz[ordinal] = laptop.getCpu().getMinGhz();
+    ramBits[ordinal] = toBit(laptop.getRam());
+    brands[ordinal] = brandDictionary.code(laptop.getBrand());
+    releaseYears[ordinal] = laptop.getReleaseYear();
+    weightKg[ordinal] = LaptopFilter.weightKg(laptop);
+    screenWidths[ordinal] = laptop.getScreen().getResolution().getWidth();
+    screenHeights[ordinal] = laptop.getScreen().getResolution().getHeight();
+    if (responses != null) {
+      responses.set(ordinal, response);
+    }
+
+    size = ordinal + 1;
+    return ordinal;
+  }
+
+  /**
+   * Loads the filter columns of a snapshot into these columns, which must be empty. The laptops are
+   * decoded lazily.
+   */
+  synchronized void load(MappedSnapshot snapshot) {
+    if (size != 0) {
+      throw new IllegalStateException("columns are not empty");
+    }
+
+    int count = snapshot.size();
+    int capacity = Math.max(INITIAL_CAPACITY, count);
+    laptops.ensureCapacity(capacity);
+    prices = Arrays.copyOf(snapshot.prices, capacity);
+    cores = Arrays.copyOf(snapshot.cores, capacity);
+    minGhz = Arrays.copyOf(snapshot.minGhz, capacity);
+    ramBits = Arrays.copyOf(snapshot.ramBits, capacity);
+    brands = Arrays.copyOf(snapshot.brands, capacity);
+    releaseYears = Arrays.copyOf(snapshot.releaseYears, capacity);
+    weightKg = Arrays.copyOf(snapshot.weightKg, capacity);
+    screenWidths = Arrays.copyOf(snapshot.screenWidths, capacity);
+    screenHeights = Arrays.copyOf(snapshot.screenHeights, capacity);
+    brandDictionary = snapshot.brandDictionary;
+    if (responses != null) {
+      responses.ensureCapacity(capacity);
+    }
+    if (count > 0) {
+      undecoded.set(count);
+      this.snapshot = snapshot;
+    }
+    size = count;
+  }
+
+  /**
+   * Reads the laptops that have not been decoded yet from {@code records} instead, a later snapshot
+   * whose first records are the laptops of the current one in ordinal order, so that the current
+   * mapping can be released.
+   */
+  void rebase(MappedSnapshot records) {
+    MappedSnapshot current = snapshot;
+    if (current == null) {
+      return;
+    }
+    if (records.size() < current.size()) {
+      throw new IllegalArgumentException("snapshot does not cover the mapped laptops");
+    }
+    snapshot = records;
+    // the last laptop may have been decoded in between
+    if (undecoded.get() == 0) {
+      snapshot = null;
+    }
+  }
+
+  /**
+   * Returns true while some laptops are only in the snapshot mapping.
+   */
+  boolean isMapped() {
+    return snapshot != null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  Laptop get(int ordinal) {
+    Laptop laptop = laptops.get(ordinal);
+    return laptop != null ? laptop : decode(ordinal);
+  }
+
+  private Laptop decode(int ordinal) {
+    MappedSnapshot snapshot = this.snapshot;
+    if (snapshot == null) {
+      // every laptop was decoded since it was read
+      return laptops.get(ordinal);
+    }
+
+    // racing readers may both decode, which only costs an extra copy
+    Laptop laptop = snapshot.decode(ordinal);
+    if (!laptops.compareAndSet(ordinal, null, laptop)) {
+      return laptops.get(ordinal);
+    }
+    if (undecoded.decrementAndGet() == 0) {
+      this.snapshot = null;
+    }
+    return laptop;
+  }
+
+  /**
+   * Writes the laptop as {@link Laptop#writeDelimitedTo} does, copying the snapshot bytes of a laptop
+   * that was never decoded.
+   */
+  void writeDelimitedTo(int ordinal, OutputStream out) throws IOException {
+    Laptop laptop = laptops.get(ordinal);
+    MappedSnapshot snapshot = this.snapshot;
+    if (laptop == null && snapshot == null) {
+      laptop = laptops.get(ordinal);
+    }
+    if (laptop != null) {
+      laptop.writeDelimitedTo(out);
+      return;
+    }
+
+    ByteBuffer record = snapshot.record(ordinal);
+    byte[] bytes = new byte[CodedOutputStream.computeUInt32SizeNoTag(record.remaining()) + record.remaining()];
+    CodedOutputStream coded = CodedOutputStream.newInstance(bytes);
+    coded.writeUInt32NoTag(record.remaining());
+    coded.write(record);
+    out.write(bytes);
+  }
+
+  /**
+   * Returns the encoded {@link SearchLaptopResponse} wrapping the laptop, or null if this instance
+   * does not encode responses.
+   */
+  byte[] response(int ordinal) {
+    if (responses == null) {
+      return null;
+    }
+
+    byte[] response = responses.get(ordinal);
+    if (response == null) {
+      response = encodeResponse(get(ordinal));
+      responses.set(ordinal, response);
+    }
+    return response;
+  }
+
+  /**
+   * Sends a laptop to {@code stream}, with its encoded response if this instance keeps them.
+   */
+  void send(int ordinal, LaptopStream stream) {
+    if (responses == null) {
+      stream.send(get(ordinal));
+    } else {
+      stream.sendEncoded(get(ordinal), response(ordinal));
+    }
+  }
+
+  double price(int ordinal) {
+    return prices[ordinal];
+  }
+
+  int cores(int ordinal) {
+    return cores[ordinal];
+  }
+
+  double minGhz(int ordinal) {
+    return minGhz[ordinal];
+  }
+
+  long ramBits(int ordinal) {
+    return ramBits[ordinal];
+  }
+
+  void search(Filter filter, LaptopStream stream) {
+    cursor(filter).forEachRemaining(stream);
+  }
+
+  /**
+   * Binds the criteria of the filter to the columns of the laptops saved so far. With
+   * {@code withThresholds} false, the original four thresholds are left out, for callers that have
+   * already applied them through an index.
+   *
+   * <p>Predicates are ordered by how many rows of a sample they reject, and the ones that decode the
+   * laptop always run last.
+   */
+  ColumnMatcher matcher(LaptopFilter filter, boolean withThresholds) {
+    // codes below the published size were assigned before it, so read the size first
+    int size = this.size;
+    StringDictionary brandDictionary = this.brandDictionary;
+
+    List<ColumnPredicate> predicates = new ArrayList<>();
+    if (withThresholds) {
+      predicates.add(new ColumnPredicate.DoubleAtMost(prices, filter.maxPrice));
+      if (filter.minCores != 0) {
+        predicates.add(new ColumnPredicate.IntRange(cores, filter.minCores, Integer.MAX_VALUE));
+      }
+      if (filter.minCpuGhz != 0) {
+        predicates.add(new ColumnPredicate.DoubleAtLeast(minGhz, filter.minCpuGhz));
+      }
+      if (filter.minRam != 0) {
+        predicates.add(new ColumnPredicate.LongAtLeast(ramBits, filter.minRam));
+      }
+    }
+    if (filter.minPrice != 0) {
+      predicates.add(new ColumnPredicate.DoubleAtLeast(prices, filter.minPrice));
+    }
+    if (filter.minReleaseYear != 0 || filter.maxReleaseYear != 0) {
+      predicates.add(new ColumnPredicate.IntRange(releaseYears, filter.minReleaseYear,
+          filter.maxReleaseYear == 0 ? Integer.MAX_VALUE : filter.maxReleaseYear));
+    }
+    if (filter.maxWeightKg != 0) {
+      predicates.add(new ColumnPredicate.DoubleAtMost(weightKg, filter.maxWeightKg));
+    }
+    if (filter.minWidth != 0) {
+      predicates.add(new ColumnPredicate.IntRange(screenWidths, filter.minWidth, Integer.MAX_VALUE));
+    }
+    if (filter.minHeight != 0) {
+      predicates.add(new ColumnPredicate.IntRange(screenHeights, filter.minHeight, Integer.MAX_VALUE));
+    }
+    if (filter.brands != null) {
+      boolean[] members = new boolean[brandDictionary.size()];
+      for (String brand : filter.brands) {
+        int code = brandDictionary.find(brand);
+        if (code >= 0 && code < members.length) {
+          members[code] = true;
+        }
+      }
+      predicates.add(new ColumnPredicate.CodeIn(brands, members));
+    }
+    if (filter.hasNestedCriteria()) {
+      predicates.add(new ColumnPredicate.Decoded(this, filter::testNested));
+    }
+
+    return new ColumnMatcher(orderBySelectivity(predicates, size));
+  }
+
+  private static ColumnPredicate[] orderBySelectivity(List<ColumnPredicate> predicates, int size) {
+    int n = predicates.size();
+    long[] order = new long[n];
+    int[] sample = new int[SELECTIVITY_SAMPLE];
+    boolean sampled = n > 1 && size >= SELECTIVITY_SAMPLE * 4;
+    int stride = size / SELECTIVITY_SAMPLE;
+
+    // sort keys: decoding predicates last, then by sampled matches, then by original position
+    for (int p = 0; p < n; p++) {
+      ColumnPredicate predicate = predicates.get(p);
+      long kept = 0;
+      if (sampled && !predicate.decodes()) {
+        for (int i = 0; i < SELECTIVITY_SAMPLE; i++) {
+          sample[i] = i * stride;
+        }
+        kept = predicate.filter(sample, SELECTIVITY_SAMPLE);
+      }
+      order[p] = (predicate.decodes() ? 1L << 40 : 0) | kept << 8 | p;
+    }
+    Arrays.sort(order);
+
+    ColumnPredicate[] ordered = new ColumnPredicate[n];
+    for (int i = 0; i < n; i++) {
+      ordered[i] = predicates.get((int) (order[i] & 0xFF));
+    }
+    return ordered;
+  }
+
+  /**
+   * Adds the laptops saved so far that match the filter to the aggregation, in one pass over the
+   * columns and without decoding any laptop unless the filter has criteria on GPUs or storages.
+   */
+  void aggregate(Filter filter, LaptopAggregation aggregation) {
+    int size = this.size;
+    ColumnMatcher matcher = matcher(LaptopFilter.compile(filter), true);
+    StringDictionary brandDictionary = this.brandDictionary;
+    double[] prices = this.prices;
+    long[] ramBits = this.ramBits;
+    int[] brands = this.brands;
+    int[] releaseYears = this.releaseYears;
+
+    long[] brandCounts = aggregation.byBrand() ? new long[brandDictionary.size()] : null;
+    boolean byRam = aggregation.byRam();
+    boolean byPriceBand = aggregation.byPriceBand();
+    boolean byReleaseYear = aggregation.byReleaseYear();
+
+    int[] hits = new int[SCAN_BATCH];
+    long count = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    double sum = 0;
+    for (int from = 0; from < size; from += SCAN_BATCH) {
+      int batch = Math.min(SCAN_BATCH, size - from);
+      for (int k = 0; k < batch; k++) {
+        hits[k] = from + k;
+      }
+      int matched = matcher.filter(hits, batch);
+
+      for (int k = 0; k < matched; k++) {
+        int i = hits[k];
+        double price = prices[i];
+        min = Math.min(min, price);
+        max = Math.max(max, price);
+        sum += price;
+        if (brandCounts != null) {
+          brandCounts[brands[i]]++;
+        }
+        if (byRam) {
+          aggregation.addRam(ramBits[i]);
+        }
+        if (byPriceBand) {
+          aggregation.addPriceBand(price);
+        }
+        if (byReleaseYear) {
+          aggregation.addReleaseYear(releaseYears[i]);
+        }
+      }
+      count += matched;
+    }
+
+    aggregation.addTotals(count, min, max, sum);
+    if (brandCounts != null) {
+      for (int code = 0; code < brandCounts.length; code++) {
+        if (brandCounts[code] > 0) {
+          aggregation.addBrand(brandDictionary.value(code), brandCounts[code]);
+        }
+      }
+    }
+    metrics.scanned(size, (int) count);
+  }
+
+  /**
+   * Sends the laptops saved so far that match the filter to {@code top}, reading each one's sort key
+   * from the columns so that only laptops that can still make it into the result are decoded.
+   */
+  void searchTop(Filter filter, LaptopOrdering ordering, TopLaptops top) {
+    int size = this.size;
+    ColumnMatcher matcher = matcher(LaptopFilter.compile(filter), true);
+    OrderBy orderBy = ordering.getOrderBy();
+    double[] prices = this.prices;
+    double[] minGhz = this.minGhz;
+    long[] ramBits = this.ramBits;
+    int[] releaseYears = this.releaseYears;
+
+    int[] hits = new int[SCAN_BATCH];
+    int count = 0;
+    for (int from = 0; from < size; from += SCAN_BATCH) {
+      int batch = Math.min(SCAN_BATCH, size - from);
+      for (int k = 0; k < batch; k++) {
+        hits[k] = from + k;
+      }
+      int matched = matcher.filter(hits, batch);
+
+      for (int k = 0; k < matched; k++) {
+        int i = hits[k];
+        long key;
+        switch (orderBy) {
+          case PRICE:
+            key = SortedColumnIndex.sortable(prices[i]);
+            break;
+          case RELEASE_YEAR:
+            key = Integer.toUnsignedLong(releaseYears[i]);
+            break;
+          case CPU_GHZ:
+            key = SortedColumnIndex.sortable(minGhz[i]);
+            break;
+          case RAM:
+            key = ramBits[i];
+            break;
+          default:
+            key = 0;
+        }
+        if (!top.rejects(key)) {
+          top.send(get(i));
+        }
+      }
+      count += matched;
+    }
+    metrics.scanned(size, count);
+  }
+
+  /**
+   * Returns a cursor over the laptops saved so far that match the filter, in ordinal order.
+   */
+  Cursor cursor(Filter filter) {
+    return new Cursor(LaptopFilter.compile(filter));
+  }
+
+  final class Cursor implements LaptopCursor {
+    private final int size = LaptopColumns.this.size;
+    private final ColumnMatcher matcher;
+
+    private final int[] hits = new int[SCAN_BATCH];
+    private int position;
+
+    private Cursor(LaptopFilter filter) {
+      matcher = matcher(filter, true);
+    }
+
+    @Override
+    public boolean next(int max, LaptopStream stream) {
+      int sent = 0;
+      int scanned = 0;
+      while (position < size && sent < max && scanned < MAX_ROWS_PER_CALL) {
+        int from = position;
+        int to = Math.min(from + SCAN_BATCH, size);
+        scanned += to - from;
+        position = to;
+
+        for (int i = from; i < to; i++) {
+          hits[i - from] = i;
+        }
+        int count = matcher.filter(hits, to - from);
+
+        for (int k = 0; k < count; k++) {
+          send(hits[k], stream);
+          if (++sent == max) {
+            position = hits[k] + 1;
+            break;
+          }
+        }
+      }
+      metrics.scanned(scanned, sent);
+      return position < size;
+    }
+  }
+
+  private void grow(int capacity) {
+    laptops.ensureCapacity(capacity);
+    prices = Arrays.copyOf(prices, capacity);
+    cores = Arrays.copyOf(cores, capacity);
+    minGhz = Arrays.copyOf(minGhz, capacity);
+    ramBits = Arrays.copyOf(ramBits, capacity);
+    brands = Arrays.copyOf(brands, capacity);
+    releaseYears = Arrays.copyOf(releaseYears, capacity);
+    weightKg = Arrays.copyOf(weightKg, capacity);
+    screenWidths = Arrays.copyOf(screenWidths, capacity);
+    screenHeights = Arrays.copyOf(screenHeights, capacity);
+    if (responses != null) {
+      responses.ensureCapacity(capacity);
+    }
+  }
+
+  static long toBit(Memory memory) {
+    return toBit(memory.getValue(), memory.getUnit());
+  }
+
+  static long toBit(long value, Memory.Unit unit) {
+    if (unit == null) {
+      return 0;
+    }
+
+    switch (unit) {
+      case BIT:
+        return value;
+      case BYTE:
+        return value << 3;
+      case KILOBYTE:
+        return value << 13;
+      case MEGABYTE:
+        return value << 23;
+      case GIGABYTE:
+        return value << 33;
+      case TERABYTE:
+        return value << 43;
+      default:
+        return 0;
+    }
+  }
+}
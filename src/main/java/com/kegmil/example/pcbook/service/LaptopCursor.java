@@ -0,0 +1,28 @@
+package com.kegmil.example.pcbook.service;
+
+/**
+ * Resumable iteration over the laptops that match a search.
+ */
+public interface LaptopCursor {
+  /**
+   * Sends up to {@code max} further matching laptops to {@code stream}. A call may also return
+   * early after a bounded amount of scanning, so callers can check for cancellation in between.
+   *
+   * @return false once the cursor is exhausted
+   */
+  boolean next(int max, LaptopStream stream);
+
+  /**
+   * Stops a cursor its caller will not read to the end, such as one of a cancelled call, so it
+   * releases any work scheduled on its behalf. It may be called more than once, and {@code next} must
+   * not be called afterwards.
+   */
+  default void cancel() {
+  }
+
+  default void forEachRemaining(LaptopStream stream) {
+    while (next(Integer.MAX_VALUE, stream)) {
+      // each call scans a bounded amount
+    }
+  }
+}
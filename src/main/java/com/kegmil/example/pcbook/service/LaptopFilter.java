@@ -0,0 +1,294 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.GPU;
+import com.kegmil.example.pcbook.pb.GpuFilter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Storage;
+import com.kegmil.example.pcbook.pb.StorageFilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * A {@link Filter} compiled once per search. Criteria that are not set are dropped, so they cost
+ * nothing while matching; the others are checked on laptops cheapest first, and on
+ * {@link LaptopColumns} most selective first.
+ *
+ * <p>Fields are kept in the form the stores compare them in, and filters that select the same
+ * laptops, such as 8 GB and 8192 MB of RAM, are equal.
+ *
+ * <p>A NaN threshold is rejected: no laptop compares with it, and the indexes of the different
+ * stores would each read it differently.
+ */
+final class LaptopFilter {
+
+  static final double KG_PER_LB = 0.45359237;
+
+  // the original thresholds, which the indexes are built on; max_price_usd always applies
+  final double maxPrice;
+  final int minCores;
+  final double minCpuGhz;
+  final long minRam;
+
+  // 0 or null when not set
+  final double minPrice;
+  final Set<String> brands;
+  final int minReleaseYear;
+  final int maxReleaseYear;
+  final double maxWeightKg;
+  final int minWidth;
+  final int minHeight;
+  private final GpuCriteria gpu;
+  private final StorageCriteria storage;
+
+  private final List<Predicate<Laptop>> chain = new ArrayList<>();
+
+  private LaptopFilter(Filter filter) {
+    checkThresholds(filter);
+    // adding 0.0 turns -0.0 into 0.0
+    maxPrice = filter.getMaxPriceUsd() + 0.0;
+    minCores = filter.getMinCpuCores();
+    minCpuGhz = filter.getMinCpuGhz() + 0.0;
+    minRam = LaptopColumns.toBit(filter.getMinRam());
+    minPrice = filter.getMinPriceUsd() + 0.0;
+    brands = filter.getBrandsCount() == 0
+        ? null
+        : Collections.unmodifiableSet(new TreeSet<>(filter.getBrandsList()));
+    minReleaseYear = filter.getMinReleaseYear();
+    maxReleaseYear = filter.getMaxReleaseYear();
+    maxWeightKg = filter.getMaxWeightKg() + 0.0;
+    minWidth = filter.getMinResolution().getWidth();
+    minHeight = filter.getMinResolution().getHeight();
+    gpu = filter.hasGpu() ? new GpuCriteria(filter.getGpu()) : null;
+    storage = filter.hasStorage() ? new StorageCriteria(filter.getStorage()) : null;
+
+    chain.add(laptop -> laptop.getPriceUsd() <= maxPrice);
+    if (minPrice != 0) {
+      chain.add(laptop -> laptop.getPriceUsd() >= minPrice);
+    }
+    if (minReleaseYear != 0) {
+      chain.add(laptop -> laptop.getReleaseYear() >= minReleaseYear);
+    }
+    if (maxReleaseYear != 0) {
+      chain.add(laptop -> laptop.getReleaseYear() <= maxReleaseYear);
+    }
+    if (minCores != 0) {
+      chain.add(laptop -> laptop.getCpu().getNumberCores() >= minCores);
+    }
+    if (minCpuGhz != 0) {
+      chain.add(laptop -> laptop.getCpu().getMinGhz() >= minCpuGhz);
+    }
+    if (minRam != 0) {
+      chain.add(laptop -> LaptopColumns.toBit(laptop.getRam()) >= minRam);
+    }
+    if (maxWeightKg != 0) {
+      chain.add(laptop -> weightKg(laptop) <= maxWeightKg);
+    }
+    if (minWidth != 0) {
+      chain.add(laptop -> laptop.getScreen().getResolution().getWidth() >= minWidth);
+    }
+    if (minHeight != 0) {
+      chain.add(laptop -> laptop.getScreen().getResolution().getHeight() >= minHeight);
+    }
+    if (brands != null) {
+      chain.add(laptop -> brands.contains(laptop.getBrand()));
+    }
+    if (gpu != null) {
+      chain.add(gpu);
+    }
+    if (storage != null) {
+      chain.add(storage);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if a threshold of the filter is NaN
+   */
+  static LaptopFilter compile(Filter filter) {
+    return new LaptopFilter(filter);
+  }
+
+  /**
+   * @throws IllegalArgumentException if a threshold of the filter is NaN
+   */
+  static void checkThresholds(Filter filter) {
+    checkNumber(filter.getMaxPriceUsd(), "max_price_usd");
+    checkNumber(filter.getMinCpuGhz(), "min_cpu_ghz");
+    checkNumber(filter.getMinPriceUsd(), "min_price_usd");
+    checkNumber(filter.getMaxWeightKg(), "max_weight_kg");
+    checkNumber(filter.getGpu().getMinGhz(), "gpu.min_ghz");
+  }
+
+  private static void checkNumber(double threshold, String field) {
+    if (Double.isNaN(threshold)) {
+      throw new IllegalArgumentException(field + " must not be NaN");
+    }
+  }
+
+  boolean test(Laptop laptop) {
+    for (Predicate<Laptop> predicate : chain) {
+      if (!predicate.test(laptop)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if criteria other than the original four thresholds are set.
+   */
+  boolean hasExtraCriteria() {
+    return minPrice != 0 || brands != null || minReleaseYear != 0 || maxReleaseYear != 0
+        || maxWeightKg != 0 || minWidth != 0 || minHeight != 0 || hasNestedCriteria();
+  }
+
+  /**
+   * Returns true if criteria on the repeated {@code gpus} or {@code storages} are set, which only a
+   * decoded laptop can be checked against.
+   */
+  boolean hasNestedCriteria() {
+    return gpu != null || storage != null;
+  }
+
+  boolean testNested(Laptop laptop) {
+    return (gpu == null || gpu.test(laptop)) && (storage == null || storage.test(laptop));
+  }
+
+  /**
+   * Returns the weight in kilograms, or NaN if the laptop has none, which no weight bound matches.
+   */
+  static double weightKg(Laptop laptop) {
+    switch (laptop.getWeightCase()) {
+      case WEIGHT_KG:
+        return laptop.getWeightKg();
+      case WEIGHT_LB:
+        return laptop.getWeightLb() * KG_PER_LB;
+      default:
+        return Double.NaN;
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof LaptopFilter)) {
+      return false;
+    }
+    LaptopFilter other = (LaptopFilter) o;
+    return Double.compare(maxPrice, other.maxPrice) == 0
+        && minCores == other.minCores
+        && Double.compare(minCpuGhz, other.minCpuGhz) == 0
+        && minRam == other.minRam
+        && Double.compare(minPrice, other.minPrice) == 0
+        && Objects.equals(brands, other.brands)
+        && minReleaseYear == other.minReleaseYear
+        && maxReleaseYear == other.maxReleaseYear
+        && Double.compare(maxWeightKg, other.maxWeightKg) == 0
+        && minWidth == other.minWidth
+        && minHeight == other.minHeight
+        && Objects.equals(gpu, other.gpu)
+        && Objects.equals(storage, other.storage);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Double.hashCode(maxPrice);
+    result = 31 * result + minCores;
+    result = 31 * result + Double.hashCode(minCpuGhz);
+    result = 31 * result + Long.hashCode(minRam);
+    result = 31 * result + Double.hashCode(minPrice);
+    result = 31 * result + Objects.hashCode(brands);
+    result = 31 * result + minReleaseYear;
+    result = 31 * result + maxReleaseYear;
+    result = 31 * result + Double.hashCode(maxWeightKg);
+    result = 31 * result + minWidth;
+    result = 31 * result + minHeight;
+    result = 31 * result + Objects.hashCode(gpu);
+    result = 31 * result + Objects.hashCode(storage);
+    return result;
+  }
+
+  private static final class GpuCriteria implements Predicate<Laptop> {
+    private final Set<String> brands;
+    private final double minGhz;
+    private final long minMemory;
+
+    GpuCriteria(GpuFilter filter) {
+      brands = new TreeSet<>(filter.getBrandsList());
+      minGhz = filter.getMinGhz() + 0.0;
+      minMemory = LaptopColumns.toBit(filter.getMinMemory());
+    }
+
+    @Override
+    public boolean test(Laptop laptop) {
+      for (GPU gpu : laptop.getGpusList()) {
+        if ((brands.isEmpty() || brands.contains(gpu.getBrand()))
+            && gpu.getMinGhz() >= minGhz
+            && LaptopColumns.toBit(gpu.getMemory()) >= minMemory) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof GpuCriteria)) {
+        return false;
+      }
+      GpuCriteria other = (GpuCriteria) o;
+      return brands.equals(other.brands)
+          && Double.compare(minGhz, other.minGhz) == 0
+          && minMemory == other.minMemory;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(brands, minGhz, minMemory);
+    }
+  }
+
+  private static final class StorageCriteria implements Predicate<Laptop> {
+    private final Set<Storage.Driver> drivers = EnumSet.noneOf(Storage.Driver.class);
+    private final long minMemory;
+
+    StorageCriteria(StorageFilter filter) {
+      drivers.addAll(filter.getDriversList());
+      minMemory = LaptopColumns.toBit(filter.getMinMemory());
+    }
+
+    @Override
+    public boolean test(Laptop laptop) {
+      for (Storage storage : laptop.getStoragesList()) {
+        if ((drivers.isEmpty() || drivers.contains(storage.getDriver()))
+            && LaptopColumns.toBit(storage.getMemory()) >= minMemory) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof StorageCriteria)) {
+        return false;
+      }
+      StorageCriteria other = (StorageCriteria) o;
+      return drivers.equals(other.drivers) && minMemory == other.minMemory;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(drivers, minMemory);
+    }
+  }
+}
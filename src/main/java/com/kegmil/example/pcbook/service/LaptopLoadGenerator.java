@@ -0,0 +1,325 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.CreateLaptopRequest;
+import com.kegmil.example.pcbook.pb.CreateLaptopResponse;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest;
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import com.kegmil.example.pcbook.sample.Generator;
+import com.kegmil.example.pcbook.sample.LaptopDistribution;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for a laptop server. Sends a mix of {@code createLaptop} and {@code searchLaptop}
+ * calls with async stubs, round robin over several channels, and records the latency of each RPC in
+ * an HDR histogram. Failed calls are recorded in a histogram of their own, so that calls that time
+ * out or are shed after a stall still show in the tail.
+ *
+ * <p>In closed-loop mode a fixed number of calls is kept outstanding, which measures maximum
+ * throughput. In open-loop mode calls are started at a fixed rate and latency is measured from the
+ * time a call was scheduled to start, so a stalled server is not hidden by the client waiting for it
+ * (coordinated omission).
+ */
+public class LaptopLoadGenerator {
+
+  private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private static final Filter[] FILTERS = {
+      Filter.newBuilder().setMaxPriceUsd(2000).setMinCpuCores(4).setMinCpuGhz(2.5)
+          .setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE)).build(),
+      Filter.newBuilder().setMaxPriceUsd(1600).setMinCpuCores(8).build(),
+      Filter.newBuilder().setMaxPriceUsd(3000).setMinCpuGhz(3.0)
+          .setMinRam(Memory.newBuilder().setValue(32).setUnit(Memory.Unit.GIGABYTE)).build(),
+  };
+
+  private final List<LaptopServiceGrpc.LaptopServiceStub> stubs = new ArrayList<>();
+  private final double searchRatio;
+  private final AtomicInteger nextStub = new AtomicInteger();
+  private final ThreadLocal<Generator> generators = ThreadLocal.withInitial(Generator::new);
+
+  /**
+   * @param searchRatio share of calls that are searches, between 0 and 1; the others are creates
+   */
+  public LaptopLoadGenerator(List<ManagedChannel> channels, double searchRatio) {
+    for (ManagedChannel channel : channels) {
+      stubs.add(LaptopServiceGrpc.newStub(channel));
+    }
+    this.searchRatio = searchRatio;
+  }
+
+  /**
+   * Keeps {@code concurrency} calls outstanding until {@code duration} has passed, then waits for
+   * the last calls to complete.
+   */
+  public Report runClosedLoop(int concurrency, Duration duration) throws InterruptedException {
+    Report report = new Report();
+    long end = System.nanoTime() + duration.toNanos();
+    CountDownLatch done = new CountDownLatch(concurrency);
+
+    for (int i = 0; i < concurrency; i++) {
+      Runnable[] lane = new Runnable[1];
+      lane[0] = () -> {
+        long now = System.nanoTime();
+        if (now - end >= 0) {
+          done.countDown();
+          return;
+        }
+        send(now, report, lane[0]);
+      };
+      lane[0].run();
+    }
+
+    done.await();
+    report.finish();
+    return report;
+  }
+
+  /**
+   * Starts {@code ratePerSecond} calls per second until {@code duration} has passed, with at most
+   * {@code maxOutstanding} calls outstanding, then waits for the last calls to complete.
+   */
+  public Report runOpenLoop(double ratePerSecond, int maxOutstanding, Duration duration)
+      throws InterruptedException {
+    Report report = new Report();
+    long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    Semaphore outstanding = new Semaphore(maxOutstanding);
+
+    for (long i = 0; ; i++) {
+      long intended = start + i * interval;
+      if (intended - end >= 0) {
+        break;
+      }
+      long wait = intended - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+
+      // waiting for a permit delays the call, and that delay is counted in its latency
+      outstanding.acquire();
+      send(intended, report, outstanding::release);
+    }
+
+    outstanding.acquire(maxOutstanding);
+    report.finish();
+    return report;
+  }
+
+  private void send(long intended, Report report, Runnable onDone) {
+    LaptopServiceGrpc.LaptopServiceStub stub =
+        stubs.get(Math.floorMod(nextStub.getAndIncrement(), stubs.size()));
+
+    if (ThreadLocalRandom.current().nextDouble() < searchRatio) {
+      SearchLaptopRequest request = SearchLaptopRequest.newBuilder()
+          .setFilter(FILTERS[ThreadLocalRandom.current().nextInt(FILTERS.length)])
+          .build();
+      stub.searchLaptop(request, new Observer<SearchLaptopResponse>(report.search, intended, onDone));
+    } else {
+      // an empty ID lets the server assign one, which is cheaper than generating a UUID here
+      CreateLaptopRequest request = CreateLaptopRequest.newBuilder()
+          .setLaptop(generators.get().newLaptop().toBuilder().setId(""))
+          .build();
+      stub.createLaptop(request, new Observer<CreateLaptopResponse>(report.create, intended, onDone));
+    }
+  }
+
+  private static final class Observer<T> implements StreamObserver<T> {
+    private final Rpc rpc;
+    private final long intended;
+    private final Runnable onDone;
+
+    Observer(Rpc rpc, long intended, Runnable onDone) {
+      this.rpc = rpc;
+      this.intended = intended;
+      this.onDone = onDone;
+    }
+
+    @Override
+    public void onNext(T value) {
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      rpc.errorLatency.recordValue(Math.min(System.nanoTime() - intended, MAX_LATENCY_NANOS));
+      onDone.run();
+    }
+
+    @Override
+    public void onCompleted() {
+      rpc.latency.recordValue(Math.min(System.nanoTime() - intended, MAX_LATENCY_NANOS));
+      onDone.run();
+    }
+  }
+
+  static final class Rpc {
+    final Histogram latency = new ConcurrentHistogram(MAX_LATENCY_NANOS, 3);
+    final Histogram errorLatency = new ConcurrentHistogram(MAX_LATENCY_NANOS, 3);
+  }
+
+  /**
+   * Latency and throughput of one run, per RPC.
+   */
+  public static final class Report {
+    final Rpc create = new Rpc();
+    final Rpc search = new Rpc();
+    private final long start = System.nanoTime();
+    private long elapsed;
+
+    private void finish() {
+      elapsed = System.nanoTime() - start;
+    }
+
+    public Histogram createLatency() {
+      return create.latency;
+    }
+
+    public Histogram searchLatency() {
+      return search.latency;
+    }
+
+    /**
+     * Latency of the failed creates, measured like that of the successful ones.
+     */
+    public Histogram createErrorLatency() {
+      return create.errorLatency;
+    }
+
+    public Histogram searchErrorLatency() {
+      return search.errorLatency;
+    }
+
+    public long createErrors() {
+      return create.errorLatency.getTotalCount();
+    }
+
+    public long searchErrors() {
+      return search.errorLatency.getTotalCount();
+    }
+
+    @Override
+    public String toString() {
+      return format("createLaptop", create.latency) + "\n" + format("  errors", create.errorLatency) + "\n"
+          + format("searchLaptop", search.latency) + "\n" + format("  errors", search.errorLatency);
+    }
+
+    private String format(String name, Histogram latency) {
+      double seconds = elapsed / 1e9;
+      return String.format("%-13s %9d calls %9.1f/s  p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms",
+          name, latency.getTotalCount(), latency.getTotalCount() / seconds,
+          latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+          latency.getValueAtPercentile(99.9) / 1e6, latency.getMaxValue() / 1e6);
+    }
+  }
+
+  /**
+   * Options: {@code --target host:port} (default {@code localhost:6565}) or {@code --in-process},
+   * {@code --channels n}, {@code --mode closed|open}, {@code --concurrency n}, {@code --rate n},
+   * {@code --duration seconds}, {@code --search-ratio r} and, for an in-process server,
+   * {@code --execution cached|bounded|per-method|virtual}.
+   */
+  public static void main(String[] args) throws Exception {
+    String target = "localhost:6565";
+    boolean inProcess = false;
+    int channelCount = 4;
+    String mode = "closed";
+    int concurrency = 64;
+    double rate = 1000;
+    long seconds = 30;
+    double searchRatio = 0.5;
+    String execution = "cached";
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--target":
+          target = args[++i];
+          break;
+        case "--in-process":
+          inProcess = true;
+          break;
+        case "--channels":
+          channelCount = Integer.parseInt(args[++i]);
+          break;
+        case "--mode":
+          mode = args[++i];
+          break;
+        case "--concurrency":
+          concurrency = Integer.parseInt(args[++i]);
+          break;
+        case "--rate":
+          rate = Double.parseDouble(args[++i]);
+          break;
+        case "--duration":
+          seconds = Long.parseLong(args[++i]);
+          break;
+        case "--search-ratio":
+          searchRatio = Double.parseDouble(args[++i]);
+          break;
+        case "--execution":
+          execution = args[++i];
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option: " + args[i]);
+      }
+    }
+
+    LaptopServer server = null;
+    String serverName = null;
+    if (inProcess) {
+      serverName = InProcessServerBuilder.generateName();
+      InMemoryLaptopStore store = new InMemoryLaptopStore(true);
+      Generator.laptops(0, 100_000, LaptopDistribution.DEFAULT)
+          .forEach(laptop -> {
+            try {
+              store.save(laptop);
+            } catch (Exception e) {
+              throw new IllegalStateException(e);
+            }
+          });
+      server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, store,
+          ServerExecutionModel.parse(execution));
+      server.start();
+    }
+
+    List<ManagedChannel> channels = new ArrayList<>();
+    for (int i = 0; i < channelCount; i++) {
+      channels.add(inProcess
+          ? InProcessChannelBuilder.forName(serverName).build()
+          : ManagedChannelBuilder.forTarget(target).usePlaintext().build());
+    }
+
+    try {
+      LaptopLoadGenerator load = new LaptopLoadGenerator(channels, searchRatio);
+      Duration duration = Duration.ofSeconds(seconds);
+      Report report = "open".equals(mode)
+          ? load.runOpenLoop(rate, concurrency, duration)
+          : load.runClosedLoop(concurrency, duration);
+      System.out.println(report);
+    } finally {
+      for (ManagedChannel channel : channels) {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+      }
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+}
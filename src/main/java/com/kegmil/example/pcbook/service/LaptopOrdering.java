@@ -0,0 +1,64 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest.OrderBy;
+
+import java.util.UUID;
+
+/**
+ * Total order over laptops for paginated searches: by the {@link OrderBy} field, then by ID, so that
+ * a page boundary is always a single well-defined position.
+ */
+public final class LaptopOrdering {
+
+  private final OrderBy orderBy;
+  private final boolean descending;
+
+  public LaptopOrdering(OrderBy orderBy, boolean descending) {
+    this.orderBy = orderBy;
+    this.descending = descending;
+  }
+
+  public OrderBy getOrderBy() {
+    return orderBy;
+  }
+
+  public boolean isDescending() {
+    return descending;
+  }
+
+  /**
+   * Returns the sort key of a laptop as a long whose signed order matches the field's order. With
+   * {@link OrderBy#UNORDERED} every laptop has the same key, which leaves them ordered by ID.
+   */
+  public long key(Laptop laptop) {
+    switch (orderBy) {
+      case PRICE:
+        return SortedColumnIndex.sortable(laptop.getPriceUsd());
+      case RELEASE_YEAR:
+        return Integer.toUnsignedLong(laptop.getReleaseYear());
+      case CPU_GHZ:
+        return SortedColumnIndex.sortable(laptop.getCpu().getMinGhz());
+      case RAM:
+        return LaptopColumns.toBit(laptop.getRam());
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Compares two positions; negative if the first comes first in this ordering.
+   */
+  public int compare(long key, UUID id, long otherKey, UUID otherId) {
+    int result = Long.compare(key, otherKey);
+    if (result == 0) {
+      result = id.compareTo(otherId);
+    }
+    return descending ? -result : result;
+  }
+
+  public int compareKeys(long key, long otherKey) {
+    int result = Long.compare(key, otherKey);
+    return descending ? -result : result;
+  }
+}
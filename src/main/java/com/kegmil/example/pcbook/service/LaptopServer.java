@@ -1,9 +1,25 @@
 package com.kegmil.example.pcbook.service;
 
+import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.protobuf.services.HealthStatusManager;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -13,19 +29,39 @@ public class LaptopServer {
 
   private final int port;
   private final Server server;
+  private final HealthStatusManager health = new HealthStatusManager();
+  private final MetricsInterceptor metrics = new MetricsInterceptor();
+  private final ServerExecutionModel executionModel;
 
   public LaptopServer(int port, LaptopStore laptopStore) {
     this(ServerBuilder.forPort(port), port, laptopStore);
   }
 
   public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore) {
+    this(serverBuilder, port, laptopStore, ServerExecutionModel.cachedThreadPool());
+  }
+
+  public LaptopServer(ServerBuilder<?> serverBuilder, int port, LaptopStore laptopStore,
+                      ServerExecutionModel executionModel) {
     this.port = port;
+    this.executionModel = executionModel;
     LaptopService laptopService = new LaptopService(laptopStore);
-    server = serverBuilder.addService(laptopService).build();
+    ServerInterceptor handoff = executionModel.apply(serverBuilder);
+    // the last interceptor runs first, so the metrics include the time spent queued
+    ServerServiceDefinition service = handoff == null
+        ? ServerInterceptors.intercept(laptopService, metrics)
+        : ServerInterceptors.intercept(laptopService, handoff, metrics);
+    server = serverBuilder
+        .addService(service)
+        .addService(health.getHealthService())
+        .build();
   }
 
   public void start() throws IOException {
     server.start();
+    // the store is fully indexed before the server is constructed, so it can serve right away
+    health.setStatus("", ServingStatus.SERVING);
+    health.setStatus(LaptopServiceGrpc.SERVICE_NAME, ServingStatus.SERVING);
     logger.info("Server started on port: " + port);
 
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -41,19 +77,66 @@ public class LaptopServer {
 
   public void stop() throws InterruptedException {
     if (server != null) {
+      health.enterTerminalState();
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+      executionModel.shutdown();
     }
   }
 
+  /**
+   * Returns the RPC metrics of the laptop service, which can be registered as an MXBean.
+   */
+  public MetricsInterceptor metrics() {
+    return metrics;
+  }
+
   private void blockUntilShutdown() throws InterruptedException {
     if (server != null) {
       server.awaitTermination();
     }
   }
 
-  public static void main(String[] args) throws IOException, InterruptedException {
-    InMemoryLaptopStore store = new InMemoryLaptopStore();
-    LaptopServer server = new LaptopServer(6565, store);
+  /**
+   * Serves on port 6565. The optional arguments are the execution model, see
+   * {@link ServerExecutionModel#parse}, and the number of shards. With more than one shard, laptops
+   * are kept in a {@link ShardedLaptopStore} of durable stores under {@code laptops/shard-<i>} and
+   * searches scan the shards in parallel; by default all laptops are in one store under
+   * {@code laptops}.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException, JMException {
+    long start = System.nanoTime();
+    int shardCount = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    List<DurableLaptopStore> durables = new ArrayList<>();
+    LaptopStore durable;
+    if (shardCount > 1) {
+      durable = new ShardedLaptopStore(shardCount, ShardedLaptopStore.DEFAULT_PARALLELISM_THRESHOLD,
+          ForkJoinPool.commonPool(), () -> {
+            try {
+              Path directory = Paths.get("laptops", "shard-" + durables.size());
+              DurableLaptopStore shard = new DurableLaptopStore(directory, new InMemoryLaptopStore(true));
+              durables.add(shard);
+              return shard;
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } else {
+      durables.add(new DurableLaptopStore(Paths.get("laptops"), new InMemoryLaptopStore(true)));
+      durable = durables.get(0);
+    }
+    logger.info("Laptop store ready in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    CachingLaptopStore store = new CachingLaptopStore(durable);
+    ServerExecutionModel executionModel = ServerExecutionModel.parse(args.length > 0 ? args[0] : "cached");
+    LaptopServer server = new LaptopServer(ServerBuilder.forPort(6565), 6565, store, executionModel);
+
+    MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+    mbeans.registerMBean(server.metrics(), new ObjectName("com.kegmil.example.pcbook:type=RpcMetrics"));
+    mbeans.registerMBean(store, new ObjectName("com.kegmil.example.pcbook:type=CachingLaptopStoreMetrics"));
+    for (int i = 0; i < durables.size(); i++) {
+      String name = "com.kegmil.example.pcbook:type=LaptopStoreMetrics" + (shardCount > 1 ? ",shard=" + i : "");
+      mbeans.registerMBean(durables.get(i).metrics(), new ObjectName(name));
+    }
+
     server.start();
     server.blockUntilShutdown();
   }
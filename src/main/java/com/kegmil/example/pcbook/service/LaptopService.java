@@ -1,23 +1,44 @@
 package com.kegmil.example.pcbook.service;
 
+import com.kegmil.example.pcbook.pb.AggregateLaptopsRequest;
+import com.kegmil.example.pcbook.pb.AggregateLaptopsResponse;
 import com.kegmil.example.pcbook.pb.CreateLaptopRequest;
 import com.kegmil.example.pcbook.pb.CreateLaptopResponse;
+import com.kegmil.example.pcbook.pb.CreateLaptopsResponse;
 import com.kegmil.example.pcbook.pb.Filter;
 import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
 import com.kegmil.example.pcbook.pb.SearchLaptopRequest;
 import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import com.kegmil.example.pcbook.pb.WatchLaptopsRequest;
+import com.kegmil.example.pcbook.pb.WatchLaptopsResponse;
 import io.grpc.Context;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import com.kegmil.example.pcbook.pb.Laptop;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.UUID;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
 
   private static final Logger logger = Logger.getLogger(LaptopService.class.getName());
 
+  private static final int SAVE_BATCH_SIZE = 1000;
+  static final int SEARCH_BATCH_SIZE = 64;
+  static final int MAX_PAGE_SIZE = 1000;
+  private static final int DEFAULT_WATCH_BUFFER_SIZE = 1024;
+  private static final int MAX_WATCH_BUFFER_SIZE = 65536;
+  private static final double DEFAULT_PRICE_BAND_USD = 500;
+
   private LaptopStore laptopStore;
 
   public LaptopService(LaptopStore laptopStore) {
@@ -28,7 +49,9 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
   public void createLaptop(CreateLaptopRequest request, StreamObserver<CreateLaptopResponse> responseObserver) {
     Laptop laptop = request.getLaptop();
     String id = laptop.getId();
-    logger.info("Get a create-laptop request with ID: " + id);
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Get a create-laptop request with ID: " + id);
+    }
 
     UUID uuid;
     if (id.isEmpty()) {
@@ -50,9 +73,10 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
       responseObserver.onError(Status.CANCELLED.withDescription("Request is cancelled").asRuntimeException());
     }
 
-    Laptop other = laptop.toBuilder().setId(uuid.toString()).build();
+    String canonicalId = uuid.toString();
+    Laptop other = canonicalId.equals(id) ? laptop : laptop.toBuilder().setId(canonicalId).build();
     try {
-      laptopStore.save(other);
+      laptopStore.save(uuid, other);
     } catch (AlreadyExistException e) {
       responseObserver.onError(
           Status.ALREADY_EXISTS
@@ -69,21 +93,322 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
     responseObserver.onNext(response);
     responseObserver.onCompleted();
 
-    logger.info("Saved laptop with ID: " + other.getId());
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Saved laptop with ID: " + other.getId());
+    }
   }
 
   @Override
+  public StreamObserver<CreateLaptopRequest> createLaptops(StreamObserver<CreateLaptopsResponse> responseObserver) {
+    return new StreamObserver<CreateLaptopRequest>() {
+      private final CreateLaptopsResponse.Builder response = CreateLaptopsResponse.newBuilder();
+      private final List<Laptop> batch = new ArrayList<>(SAVE_BATCH_SIZE);
+      private final List<Integer> positions = new ArrayList<>(SAVE_BATCH_SIZE);
+      private int createdCount;
+
+      @Override
+      public void onNext(CreateLaptopRequest request) {
+        Laptop laptop = request.getLaptop();
+        String id = laptop.getId();
+
+        UUID uuid;
+        if (id.isEmpty()) {
+          uuid = UUID.randomUUID();
+        } else {
+          try {
+            uuid = UUID.fromString(id);
+          } catch (IllegalArgumentException e) {
+            response.addResultsBuilder()
+                .setId(id)
+                .setCode(Status.Code.INVALID_ARGUMENT.value())
+                .setMessage(e.getMessage());
+            return;
+          }
+        }
+
+        String canonicalId = uuid.toString();
+        positions.add(response.getResultsCount());
+        response.addResultsBuilder().setId(canonicalId);
+        batch.add(canonicalId.equals(id) ? laptop : laptop.toBuilder().setId(canonicalId).build());
+
+        if (batch.size() == SAVE_BATCH_SIZE) {
+          saveBatch();
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        logger.warning("create-laptops stream failed after " + createdCount + " laptops: " + t.getMessage());
+      }
+
+      @Override
+      public void onCompleted() {
+        saveBatch();
+
+        responseObserver.onNext(response.setCreatedCount(createdCount).build());
+        responseObserver.onCompleted();
+
+        logger.info("Created " + createdCount + " of " + response.getResultsCount() + " laptops");
+      }
+
+      private void saveBatch() {
+        if (batch.isEmpty()) {
+          return;
+        }
+
+        try {
+          BitSet duplicates = laptopStore.saveAll(batch);
+          for (int i = 0; i < batch.size(); i++) {
+            if (duplicates.get(i)) {
+              response.getResultsBuilder(positions.get(i))
+                  .setCode(Status.Code.ALREADY_EXISTS.value())
+                  .setMessage("laptop Id already exists");
+            } else {
+              createdCount++;
+            }
+          }
+        } catch (Exception e) {
+          for (int position : positions) {
+            response.getResultsBuilder(position)
+                .setCode(Status.Code.INTERNAL.value())
+                .setMessage(String.valueOf(e.getMessage()));
+          }
+        }
+
+        batch.clear();
+        positions.clear();
+      }
+    };
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
   public void searchLaptop(SearchLaptopRequest request, StreamObserver<SearchLaptopResponse> responseObserver) {
+    // only messages are sent without pre-encoding, so the observer can take them as objects
+    search(request, (StreamObserver<Object>) (StreamObserver<?>) responseObserver, false);
+  }
+
+  /**
+   * Serves {@code searchLaptop}. With {@code preEncoded}, a laptop whose response the store keeps is
+   * sent as those bytes, for {@link PreEncodedResponseMarshaller} to write as they are.
+   */
+  private void search(SearchLaptopRequest request, StreamObserver<Object> responseObserver, boolean preEncoded) {
     Filter filter = request.getFilter();
-    logger.info("Got a search-laptop request with filter:\n" + filter);
+    // printing the filter costs more than a narrow search, so only build the message when it is logged
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Got a search-laptop request with filter:\n" + filter);
+    }
+    if (!checkFilter(filter, responseObserver)) {
+      return;
+    }
+
+    // limit is a uint32, so it is read unsigned
+    if (request.getLimit() != 0
+        || request.getOrderBy() != SearchLaptopRequest.OrderBy.UNORDERED
+        || !request.getPageToken().isEmpty()) {
+      searchLaptopPage(request, responseObserver);
+      return;
+    }
+
+    ServerCallStreamObserver<Object> call = (ServerCallStreamObserver<Object>) responseObserver;
+    Context context = Context.current();
+    LaptopCursor cursor = laptopStore.cursor(filter);
+    LaptopStream stream = new LaptopStream() {
+      @Override
+      public void send(Laptop laptop) {
+        if (logger.isLoggable(Level.FINEST)) {
+          logger.finest("Found laptop with ID: " + laptop.getId());
+        }
+        SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
+        call.onNext(response);
+      }
+
+      @Override
+      public void sendEncoded(Laptop laptop, byte[] response) {
+        if (!preEncoded) {
+          send(laptop);
+          return;
+        }
+        if (logger.isLoggable(Level.FINEST)) {
+          logger.finest("Found laptop with ID: " + laptop.getId());
+        }
+        call.onNext(response);
+      }
+    };
+
+    // runs serialized with the other callbacks of this call, so it needs no synchronization
+    Runnable drain = new Runnable() {
+      private boolean done;
+
+      @Override
+      public void run() {
+        while (!done && call.isReady()) {
+          if (call.isCancelled() || context.isCancelled()) {
+            done = true;
+            cursor.cancel();
+            logger.info("Search laptop cancelled");
+            return;
+          }
+
+          if (!cursor.next(SEARCH_BATCH_SIZE, stream)) {
+            done = true;
+            call.onCompleted();
+            logger.fine("Search laptop completed");
+          }
+        }
+      }
+    };
 
-    laptopStore.search(filter, laptop -> {
-      logger.info("Found laptop with ID: " + laptop.getId());
-      SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
-      responseObserver.onNext(response);
+    call.setOnCancelHandler(() -> {
+      cursor.cancel();
+      logger.info("Search laptop call cancelled by the client");
     });
+    call.setOnReadyHandler(drain);
+    drain.run();
+  }
+
+  private void searchLaptopPage(SearchLaptopRequest request,
+                                StreamObserver<? super SearchLaptopResponse> responseObserver) {
+    if (request.getOrderBy() == SearchLaptopRequest.OrderBy.UNRECOGNIZED) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription("unknown order_by").asRuntimeException());
+      return;
+    }
+
+    LaptopOrdering ordering = new LaptopOrdering(request.getOrderBy(), request.getDescending());
+    int limit = request.getLimit() == 0
+        ? MAX_PAGE_SIZE
+        : (int) Math.min(Integer.toUnsignedLong(request.getLimit()), MAX_PAGE_SIZE);
 
+    PageToken after = null;
+    if (!request.getPageToken().isEmpty()) {
+      try {
+        after = PageToken.decode(request.getPageToken(), ordering);
+      } catch (IllegalArgumentException e) {
+        responseObserver.onError(
+            Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+        return;
+      }
+    }
+
+    List<Laptop> page = laptopStore.searchTop(request.getFilter(), ordering, limit, after);
+    Context context = Context.current();
+    for (int i = 0; i < page.size(); i++) {
+      if (context.isCancelled()) {
+        logger.info("Search laptop cancelled");
+        return;
+      }
+
+      SearchLaptopResponse.Builder response = SearchLaptopResponse.newBuilder().setLaptop(page.get(i));
+      if (i == page.size() - 1 && page.size() == limit) {
+        response.setNextPageToken(PageToken.after(ordering, page.get(i)).encode());
+      }
+      responseObserver.onNext(response.build());
+    }
+
+    responseObserver.onCompleted();
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Search laptop page completed with " + page.size() + " laptops");
+    }
+  }
+
+  @Override
+  public void watchLaptops(WatchLaptopsRequest request, StreamObserver<WatchLaptopsResponse> responseObserver) {
+    if (!checkFilter(request.getFilter(), responseObserver)) {
+      return;
+    }
+    if (request.getOverflow() == WatchLaptopsRequest.Overflow.UNRECOGNIZED) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription("unknown overflow").asRuntimeException());
+      return;
+    }
+
+    ServerCallStreamObserver<WatchLaptopsResponse> call =
+        (ServerCallStreamObserver<WatchLaptopsResponse>) responseObserver;
+    int bufferSize = request.getBufferSize() == 0
+        ? DEFAULT_WATCH_BUFFER_SIZE
+        : (int) Math.min(Integer.toUnsignedLong(request.getBufferSize()), MAX_WATCH_BUFFER_SIZE);
+    LaptopWatch watch = new LaptopWatch(call, bufferSize, request.getOverflow());
+    // both handlers are set before subscribing, so that no laptop is sent while they are being set
+    call.setOnCancelHandler(watch::cancel);
+    call.setOnReadyHandler(watch::drain);
+
+    try {
+      watch.start(laptopStore.watch(request.getFilter(), watch));
+    } catch (UnsupportedOperationException e) {
+      watch.cancel();
+      responseObserver.onError(Status.UNIMPLEMENTED.withDescription(e.getMessage()).asRuntimeException());
+      return;
+    }
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Watching laptops with filter:\n" + request.getFilter());
+    }
+  }
+
+  @Override
+  public void aggregateLaptops(AggregateLaptopsRequest request,
+                               StreamObserver<AggregateLaptopsResponse> responseObserver) {
+    if (!checkFilter(request.getFilter(), responseObserver)) {
+      return;
+    }
+    if (request.getFacetsList().contains(AggregateLaptopsRequest.Facet.UNRECOGNIZED)) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription("unknown facet").asRuntimeException());
+      return;
+    }
+    double priceBand = request.getPriceBandUsd() == 0 ? DEFAULT_PRICE_BAND_USD : request.getPriceBandUsd();
+    if (!(priceBand > 0) || Double.isInfinite(priceBand)) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT.withDescription("price_band_usd must be positive").asRuntimeException());
+      return;
+    }
+    // bands are counted sparsely, so there are at most as many as there are matches
+    LaptopAggregation aggregation = new LaptopAggregation(request.getFacetsList(), priceBand);
+    laptopStore.aggregate(request.getFilter(), aggregation);
+    responseObserver.onNext(aggregation.toResponse(request.getFacetsList()));
     responseObserver.onCompleted();
-    logger.info("Search laptop completed");
+
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Aggregated " + aggregation.count() + " laptops");
+    }
+  }
+
+  /**
+   * Fails the call with {@code INVALID_ARGUMENT} and returns false if no store can compile the filter.
+   */
+  private static boolean checkFilter(Filter filter, StreamObserver<?> responseObserver) {
+    try {
+      LaptopFilter.checkThresholds(filter);
+      return true;
+    } catch (IllegalArgumentException e) {
+      responseObserver.onError(Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
+      return false;
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public ServerServiceDefinition bindService() {
+    ServerServiceDefinition definition = super.bindService();
+    ServerServiceDefinition.Builder builder =
+        ServerServiceDefinition.builder(definition.getServiceDescriptor().getName());
+
+    for (ServerMethodDefinition<?, ?> method : definition.getMethods()) {
+      if (method.getMethodDescriptor() == LaptopServiceGrpc.getSearchLaptopMethod()) {
+        builder.addMethod(withPreEncodedResponses(
+            (MethodDescriptor<SearchLaptopRequest, SearchLaptopResponse>) method.getMethodDescriptor()));
+      } else {
+        builder.addMethod(method);
+      }
+    }
+    return builder.build();
+  }
+
+  private ServerMethodDefinition<SearchLaptopRequest, Object> withPreEncodedResponses(
+      MethodDescriptor<SearchLaptopRequest, SearchLaptopResponse> method) {
+    MethodDescriptor<SearchLaptopRequest, Object> descriptor =
+        method.toBuilder(method.getRequestMarshaller(), new PreEncodedResponseMarshaller()).build();
+    return ServerMethodDefinition.create(descriptor,
+        ServerCalls.asyncServerStreamingCall((request, responseObserver) -> search(request, responseObserver, true)));
   }
 }
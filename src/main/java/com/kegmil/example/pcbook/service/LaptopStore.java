@@ -3,9 +3,100 @@ package com.kegmil.example.pcbook.service;
 import com.kegmil.example.pcbook.pb.Filter;
 import com.kegmil.example.pcbook.pb.Laptop;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
 public interface LaptopStore {
   void save(Laptop laptop) throws Exception;
   Laptop find(String id);
   void search(Filter filter, LaptopStream stream);
+
+  /**
+   * Saves a laptop whose ID the caller has already parsed, so that stores keyed on the binary UUID
+   * do not parse it again. {@code id} must be the UUID of {@code laptop.getId()}.
+   */
+  default void save(UUID id, Laptop laptop) throws Exception {
+    save(laptop);
+  }
+
+  /**
+   * Saves a batch of laptops. A laptop whose ID already exists, in the store or earlier in the
+   * batch, is skipped instead of failing the whole batch.
+   *
+   * @return the positions, in iteration order, of the laptops that were skipped as duplicates
+   */
+  default BitSet saveAll(Collection<Laptop> laptops) throws Exception {
+    BitSet duplicates = new BitSet();
+    int i = 0;
+    for (Laptop laptop : laptops) {
+      try {
+        save(laptop);
+      } catch (AlreadyExistException e) {
+        duplicates.set(i);
+      }
+      i++;
+    }
+    return duplicates;
+  }
+
+  default Laptop find(UUID id) {
+    return find(id.toString());
+  }
+
+  /**
+   * Returns the number of laptops in the store, or -1 if the store does not keep count.
+   */
+  default int count() {
+    return -1;
+  }
+
+  /**
+   * Returns a cursor over the laptops matching the filter, for callers that consume results at their
+   * own pace. The default implementation runs the whole search up front.
+   */
+  default LaptopCursor cursor(Filter filter) {
+    List<Laptop> matches = new ArrayList<>();
+    search(filter, matches::add);
+
+    Iterator<Laptop> iterator = matches.iterator();
+    return (max, stream) -> {
+      for (int sent = 0; sent < max && iterator.hasNext(); sent++) {
+        stream.send(iterator.next());
+      }
+      return iterator.hasNext();
+    };
+  }
+
+  /**
+   * Returns, in order, the first {@code limit} laptops matching the filter that come after
+   * {@code after}, or from the start if it is null. Only {@code limit} laptops are held at a time.
+   */
+  default List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    TopLaptops top = new TopLaptops(ordering, limit, after);
+    search(filter, top);
+    return top.result();
+  }
+
+  /**
+   * Adds the laptops matching the filter to the aggregation. The default implementation runs a
+   * search and aggregates the laptops it returns.
+   */
+  default void aggregate(Filter filter, LaptopAggregation aggregation) {
+    search(filter, aggregation::add);
+  }
+
+  /**
+   * Sends every laptop saved from now on that matches the filter to {@code listener}, on the thread
+   * that saved it, so the listener must not block.
+   *
+   * @throws UnsupportedOperationException if this store cannot be watched
+   */
+  default LaptopSubscription watch(Filter filter, LaptopStream listener) {
+    throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be watched");
+  }
 }
 
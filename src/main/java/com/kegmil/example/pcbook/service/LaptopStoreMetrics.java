@@ -0,0 +1,64 @@
+package com.kegmil.example.pcbook.service;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Store counters. They are updated once per save or per cursor call rather than per row, so that
+ * they stay off the scan loop.
+ */
+public class LaptopStoreMetrics implements LaptopStoreMetricsMXBean {
+
+  private final LongAdder saves = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+  private final LongAdder rowsScanned = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final IntSupplier size;
+  private final LongSupplier indexBytes;
+
+  LaptopStoreMetrics(IntSupplier size, LongSupplier indexBytes) {
+    this.size = size;
+    this.indexBytes = indexBytes;
+  }
+
+  void saved(int count, int duplicateCount) {
+    saves.add(count);
+    duplicates.add(duplicateCount);
+  }
+
+  void scanned(int rows, int hitCount) {
+    rowsScanned.add(rows);
+    hits.add(hitCount);
+  }
+
+  @Override
+  public long getSaves() {
+    return saves.sum();
+  }
+
+  @Override
+  public long getDuplicates() {
+    return duplicates.sum();
+  }
+
+  @Override
+  public long getRowsScanned() {
+    return rowsScanned.sum();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public int getSize() {
+    return size.getAsInt();
+  }
+
+  @Override
+  public long getIndexBytes() {
+    return indexBytes.getAsLong();
+  }
+}
@@ -0,0 +1,26 @@
+package com.kegmil.example.pcbook.service;
+
+/**
+ * Counters of a laptop store, as exposed over JMX.
+ */
+public interface LaptopStoreMetricsMXBean {
+  long getSaves();
+
+  long getDuplicates();
+
+  /**
+   * Rows examined by searches. Compared with {@link #getHits()} it shows how much work a search
+   * does per laptop it returns.
+   */
+  long getRowsScanned();
+
+  long getHits();
+
+  int getSize();
+
+  /**
+   * Bytes held by the store's secondary indexes, such as sorted columns, bitmaps or an off-heap ID
+   * table; 0 if it has none.
+   */
+  long getIndexBytes();
+}
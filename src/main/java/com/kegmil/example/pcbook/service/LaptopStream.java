@@ -4,4 +4,12 @@ import com.kegmil.example.pcbook.pb.Laptop;
 
 public interface LaptopStream {
   void send(Laptop laptop);
+
+  /**
+   * Sends a laptop along with the serialized {@code SearchLaptopResponse} the store keeps for it.
+   * Streams that write responses as they are override this; the default sends the laptop.
+   */
+  default void sendEncoded(Laptop laptop, byte[] response) {
+    send(laptop);
+  }
 }
@@ -0,0 +1,11 @@
+package com.kegmil.example.pcbook.service;
+
+/**
+ * Registration of a listener for new laptops, see {@link LaptopStore#watch}.
+ */
+public interface LaptopSubscription {
+  /**
+   * Stops sending laptops to the listener. Laptops being published concurrently may still arrive.
+   */
+  void cancel();
+}
@@ -0,0 +1,137 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.util.Arrays;
+
+/**
+ * Filters of the subscribers to new laptops, indexed together so that a new laptop is matched
+ * against all of them in one pass.
+ *
+ * <p>The index is copy-on-write: subscribing is rare and takes a lock, publishing reads the current
+ * arrays without one. Subscriptions are sorted by {@code max_price_usd}, so a binary search skips
+ * every subscriber whose price bound the laptop already exceeds, and the rest are checked column by
+ * column as in {@link LaptopColumns}. Criteria beyond the four thresholds are checked last, only for
+ * the subscribers that set them.
+ */
+class LaptopSubscriptions {
+
+  private volatile Index index = new Index(new Entry[0]);
+
+  synchronized LaptopSubscription add(Filter filter, LaptopStream listener) {
+    Entry entry = new Entry(filter, listener);
+    Entry[] entries = Arrays.copyOf(index.entries, index.entries.length + 1);
+    entries[entries.length - 1] = entry;
+    index = new Index(entries);
+    return () -> remove(entry);
+  }
+
+  private synchronized void remove(Entry entry) {
+    Entry[] entries = index.entries;
+    for (int i = 0; i < entries.length; i++) {
+      if (entries[i] == entry) {
+        Entry[] remaining = new Entry[entries.length - 1];
+        System.arraycopy(entries, 0, remaining, 0, i);
+        System.arraycopy(entries, i + 1, remaining, i, remaining.length - i);
+        index = new Index(remaining);
+        return;
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    return index.entries.length == 0;
+  }
+
+  int size() {
+    return index.entries.length;
+  }
+
+  /**
+   * Sends the laptop to every subscriber whose filter it matches, on the calling thread.
+   */
+  void publish(Laptop laptop) {
+    Index index = this.index;
+    int size = index.entries.length;
+    if (size == 0) {
+      return;
+    }
+
+    double price = laptop.getPriceUsd();
+    int cores = laptop.getCpu().getNumberCores();
+    double minGhz = laptop.getCpu().getMinGhz();
+    long ram = LaptopColumns.toBit(laptop.getRam());
+
+    for (int i = index.firstAtLeast(price); i < size; i++) {
+      if (price <= index.maxPrices[i]
+          & cores >= index.minCores[i]
+          & minGhz >= index.minCpuGhz[i]
+          & ram >= index.minRam[i]) {
+        Entry entry = index.entries[i];
+        if (!entry.filter.hasExtraCriteria() || entry.filter.test(laptop)) {
+          entry.listener.send(laptop);
+        }
+      }
+    }
+  }
+
+  private static final class Entry {
+    final LaptopFilter filter;
+    final double maxPrice;
+    final int minCores;
+    final double minCpuGhz;
+    final long minRam;
+    final LaptopStream listener;
+
+    Entry(Filter filter, LaptopStream listener) {
+      this.filter = LaptopFilter.compile(filter);
+      maxPrice = this.filter.maxPrice;
+      minCores = this.filter.minCores;
+      minCpuGhz = this.filter.minCpuGhz;
+      minRam = this.filter.minRam;
+      this.listener = listener;
+    }
+  }
+
+  private static final class Index {
+    final Entry[] entries;
+    final double[] maxPrices;
+    final int[] minCores;
+    final double[] minCpuGhz;
+    final long[] minRam;
+
+    Index(Entry[] entries) {
+      // LaptopFilter rejects NaN bounds, so the order is total
+      Arrays.sort(entries, (a, b) -> Double.compare(a.maxPrice, b.maxPrice));
+      this.entries = entries;
+      maxPrices = new double[entries.length];
+      minCores = new int[entries.length];
+      minCpuGhz = new double[entries.length];
+      minRam = new long[entries.length];
+      for (int i = 0; i < entries.length; i++) {
+        maxPrices[i] = entries[i].maxPrice;
+        minCores[i] = entries[i].minCores;
+        minCpuGhz[i] = entries[i].minCpuGhz;
+        minRam[i] = entries[i].minRam;
+      }
+    }
+
+    /**
+     * Returns the first position whose price bound is at least {@code price}.
+     */
+    int firstAtLeast(double price) {
+      int low = 0;
+      int high = maxPrices.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (maxPrices[mid] < price) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.WatchLaptopsRequest;
+import com.kegmil.example.pcbook.pb.WatchLaptopsResponse;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One {@code watchLaptops} call: matches are queued in a bounded buffer by the saving threads and
+ * sent when the call is ready, so a slow subscriber never blocks a save.
+ *
+ * <p>Sending is serialized by a work-in-progress counter: whichever thread finds it at zero drains
+ * the buffer, and other threads only make it go around once more.
+ */
+class LaptopWatch implements LaptopStream {
+
+  private final ServerCallStreamObserver<WatchLaptopsResponse> call;
+  private final int capacity;
+  private final WatchLaptopsRequest.Overflow overflow;
+  private final ArrayDeque<Laptop> buffer = new ArrayDeque<>();
+  private final AtomicInteger work = new AtomicInteger();
+
+  // guarded by buffer
+  private int dropped;
+  private boolean overflowed;
+
+  private volatile boolean closed;
+  private volatile LaptopSubscription subscription;
+
+  LaptopWatch(ServerCallStreamObserver<WatchLaptopsResponse> call, int capacity,
+              WatchLaptopsRequest.Overflow overflow) {
+    this.call = call;
+    this.capacity = capacity;
+    this.overflow = overflow;
+  }
+
+  void start(LaptopSubscription subscription) {
+    this.subscription = subscription;
+    if (closed) {
+      subscription.cancel();
+    }
+  }
+
+  @Override
+  public void send(Laptop laptop) {
+    synchronized (buffer) {
+      if (closed || overflowed) {
+        return;
+      }
+      if (buffer.size() == capacity) {
+        switch (overflow) {
+          case DROP_NEWEST:
+            dropped++;
+            return;
+          case DISCONNECT:
+            overflowed = true;
+            break;
+          default:
+            buffer.poll();
+            dropped++;
+            buffer.add(laptop);
+            break;
+        }
+      } else {
+        buffer.add(laptop);
+      }
+    }
+    drain();
+  }
+
+  /**
+   * Sends buffered matches while the call is ready. Called by savers and by the call's on-ready
+   * handler.
+   */
+  void drain() {
+    if (work.getAndIncrement() != 0) {
+      return;
+    }
+
+    int missed = 1;
+    do {
+      try {
+        drainOnce();
+      } catch (RuntimeException e) {
+        // the call was cancelled under us; this must not fail the save that published the laptop
+        cancel();
+      }
+      missed = work.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void drainOnce() {
+    while (!closed) {
+      if (call.isCancelled()) {
+        cancel();
+        return;
+      }
+
+      boolean ready = call.isReady();
+      boolean disconnect;
+      Laptop laptop;
+      int droppedCount;
+      synchronized (buffer) {
+        disconnect = overflowed;
+        laptop = disconnect || !ready ? null : buffer.poll();
+        droppedCount = dropped;
+        if (laptop != null) {
+          dropped = 0;
+        }
+      }
+
+      if (disconnect) {
+        cancel();
+        call.onError(Status.RESOURCE_EXHAUSTED
+            .withDescription("subscriber fell more than " + capacity + " laptops behind")
+            .asRuntimeException());
+        return;
+      }
+      if (laptop == null) {
+        return;
+      }
+      call.onNext(WatchLaptopsResponse.newBuilder().setLaptop(laptop).setDroppedCount(droppedCount).build());
+    }
+  }
+
+  void cancel() {
+    closed = true;
+    cancelSubscription();
+    synchronized (buffer) {
+      buffer.clear();
+    }
+  }
+
+  private void cancelSubscription() {
+    LaptopSubscription subscription = this.subscription;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package com.kegmil.example.pcbook.service;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Snapshot file of {@code writeDelimitedTo} laptop records, memory-mapped and parsed only as far as
+ * the ID and the fields searched and aggregated on. Records are split into chunks that are parsed in
+ * parallel; full laptops are decoded on demand by {@link #decode(int)}.
+ *
+ * <p>A single mapping covers at most 2 GiB, so larger files are mapped as several regions, each
+ * ending on a record boundary.
+ */
+final class MappedSnapshot {
+
+  private static final int CHUNK_RECORDS = 1 << 16;
+
+  // field numbers of the laptop.proto, processor_message.proto, memory_message.proto and
+  // screen_message.proto fields read here
+  private static final int LAPTOP_ID = 1;
+  private static final int LAPTOP_BRAND = 2;
+  private static final int LAPTOP_CPU = 4;
+  private static final int LAPTOP_RAM = 5;
+  private static final int LAPTOP_SCREEN = 8;
+  private static final int LAPTOP_WEIGHT_KG = 10;
+  private static final int LAPTOP_WEIGHT_LB = 11;
+  private static final int LAPTOP_PRICE_USD = 12;
+  private static final int LAPTOP_RELEASE_YEAR = 13;
+  private static final int CPU_NUMBER_CORES = 3;
+  private static final int CPU_MIN_GHZ = 5;
+  private static final int MEMORY_VALUE = 1;
+  private static final int MEMORY_UNIT = 2;
+  private static final int SCREEN_RESOLUTION = 2;
+  private static final int RESOLUTION_WIDTH = 1;
+  private static final int RESOLUTION_HEIGHT = 2;
+
+  private final ByteBuffer[] regions;
+  // index of the first record of each region
+  private final int[] firstRecords;
+  private final int count;
+  // offsets within the record's region
+  private final int[] offsets;
+  private final int[] lengths;
+
+  // null when only the records were mapped
+  final long[] msbs;
+  final long[] lsbs;
+  final double[] prices;
+  final int[] cores;
+  final double[] minGhz;
+  final long[] ramBits;
+  final int[] brands;
+  final int[] releaseYears;
+  final double[] weightKg;
+  final int[] screenWidths;
+  final int[] screenHeights;
+  final StringDictionary brandDictionary = new StringDictionary();
+
+  private MappedSnapshot(ByteBuffer[] regions, int[] firstRecords, int count, int[] offsets,
+                         int[] lengths, boolean columns) {
+    this.regions = regions;
+    this.firstRecords = firstRecords;
+    this.count = count;
+    this.offsets = offsets;
+    this.lengths = lengths;
+    msbs = columns ? new long[count] : null;
+    lsbs = columns ? new long[count] : null;
+    prices = columns ? new double[count] : null;
+    cores = columns ? new int[count] : null;
+    minGhz = columns ? new double[count] : null;
+    ramBits = columns ? new long[count] : null;
+    brands = columns ? new int[count] : null;
+    releaseYears = columns ? new int[count] : null;
+    weightKg = columns ? new double[count] : null;
+    if (columns) {
+      Arrays.fill(weightKg, Double.NaN);
+    }
+    screenWidths = columns ? new int[count] : null;
+    screenHeights = columns ? new int[count] : null;
+  }
+
+  /**
+   * Maps the file and parses the filter fields of every record.
+   */
+  static MappedSnapshot map(Path file) throws IOException {
+    return map(file, Integer.MAX_VALUE, true);
+  }
+
+  /**
+   * Maps the file without parsing the records, for reading laptops that were already loaded from
+   * the same records.
+   */
+  static MappedSnapshot mapRecords(Path file) throws IOException {
+    return map(file, Integer.MAX_VALUE, false);
+  }
+
+  static MappedSnapshot map(Path file, int maxRegionSize, boolean columns) throws IOException {
+    List<ByteBuffer> regions = new ArrayList<>();
+    int[] firstRecords = new int[4];
+    int[] offsets = new int[1024];
+    int[] lengths = new int[1024];
+    int count = 0;
+
+    // record boundaries only need the length prefixes, which is cheap compared to parsing the records
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long regionStart = 0;
+      while (regionStart < size) {
+        int regionSize = (int) Math.min(maxRegionSize, size - regionStart);
+        // the mapping stays valid after the channel is closed
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+        if (regions.size() == firstRecords.length) {
+          firstRecords = Arrays.copyOf(firstRecords, firstRecords.length << 1);
+        }
+        firstRecords[regions.size()] = count;
+        regions.add(region);
+
+        int position = 0;
+        while (position < regionSize) {
+          long header = readLength(region, position, regionSize);
+          if (header < 0) {
+            break;
+          }
+          int start = (int) (header >>> 32);
+          int length = (int) header;
+          if ((long) start + length > regionSize) {
+            break;
+          }
+          if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count << 1);
+            lengths = Arrays.copyOf(lengths, count << 1);
+          }
+          offsets[count] = start;
+          lengths[count] = length;
+          count++;
+          position = start + length;
+        }
+
+        if (position < regionSize && regionStart + regionSize == size) {
+          throw new IOException("truncated record at " + (regionStart + position) + " in snapshot " + file);
+        }
+        if (position == 0) {
+          throw new IOException("record at " + regionStart + " in snapshot " + file
+              + " is larger than a mapped region");
+        }
+        // the next region starts with the record that did not fit in this one
+        regionStart += position;
+      }
+    }
+
+    MappedSnapshot snapshot = new MappedSnapshot(regions.toArray(new ByteBuffer[0]),
+        Arrays.copyOf(firstRecords, regions.size()), count, offsets, lengths, columns);
+    if (!columns) {
+      return snapshot;
+    }
+
+    int records = count;
+    int chunks = (records + CHUNK_RECORDS - 1) / CHUNK_RECORDS;
+    try {
+      IntStream.range(0, chunks).parallel().forEach(chunk -> {
+        int from = chunk * CHUNK_RECORDS;
+        int to = Math.min(from + CHUNK_RECORDS, records);
+        for (int i = from; i < to; i++) {
+          try {
+            snapshot.parseFilterFields(i);
+          } catch (IOException | IllegalArgumentException e) {
+            throw new UncheckedIOException(new IOException("corrupt record " + i + " in snapshot " + file, e));
+          }
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return snapshot;
+  }
+
+  /**
+   * Reads the varint length prefix at {@code position}. Returns the offset of the record in the high
+   * half and its length in the low half, or -1 if the prefix does not end before {@code limit}.
+   */
+  private static long readLength(ByteBuffer region, int position, int limit) throws IOException {
+    long length = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      if (position == limit) {
+        return -1;
+      }
+      byte b = region.get(position++);
+      length |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        if (length > Integer.MAX_VALUE) {
+          throw new IOException("invalid record length " + length);
+        }
+        return (long) position << 32 | length;
+      }
+    }
+    throw new IOException("malformed record length");
+  }
+
+  int size() {
+    return count;
+  }
+
+  Laptop decode(int i) {
+    try {
+      return Laptop.parseFrom(record(i));
+    } catch (InvalidProtocolBufferException e) {
+      // every record was parsed once when the snapshot was mapped
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns a read-only view of the encoded laptop.
+   */
+  ByteBuffer record(int i) {
+    // every region holds at least one record, so the first records are strictly increasing
+    int region = Arrays.binarySearch(firstRecords, i);
+    if (region < 0) {
+      region = -region - 2;
+    }
+    ByteBuffer record = regions[region].duplicate();
+    record.position(offsets[i]).limit(offsets[i] + lengths[i]);
+    return record.slice();
+  }
+
+  private void parseFilterFields(int i) throws IOException {
+    CodedInputStream in = CodedInputStream.newInstance(record(i));
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      switch (WireFormat.getTagFieldNumber(tag)) {
+        case LAPTOP_ID:
+          UUID id = UUID.fromString(in.readStringRequireUtf8());
+          msbs[i] = id.getMostSignificantBits();
+          lsbs[i] = id.getLeastSignificantBits();
+          break;
+        case LAPTOP_BRAND:
+          brands[i] = brandDictionary.code(in.readStringRequireUtf8());
+          break;
+        case LAPTOP_CPU: {
+          int limit = in.pushLimit(in.readRawVarint32());
+          while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == CPU_NUMBER_CORES) {
+              cores[i] = in.readUInt32();
+            } else if (field == CPU_MIN_GHZ) {
+              minGhz[i] = in.readDouble();
+            } else {
+              in.skipField(tag);
+            }
+          }
+          in.popLimit(limit);
+          break;
+        }
+        case LAPTOP_RAM: {
+          int limit = in.pushLimit(in.readRawVarint32());
+          long value = 0;
+          int unit = 0;
+          while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == MEMORY_VALUE) {
+              value = in.readUInt64();
+            } else if (field == MEMORY_UNIT) {
+              unit = in.readEnum();
+            } else {
+              in.skipField(tag);
+            }
+          }
+          in.popLimit(limit);
+          ramBits[i] = LaptopColumns.toBit(value, Memory.Unit.forNumber(unit));
+          break;
+        }
+        case LAPTOP_SCREEN: {
+          int limit = in.pushLimit(in.readRawVarint32());
+          while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == SCREEN_RESOLUTION) {
+              parseResolution(in, i);
+            } else {
+              in.skipField(tag);
+            }
+          }
+          in.popLimit(limit);
+          break;
+        }
+        case LAPTOP_WEIGHT_KG:
+          weightKg[i] = in.readDouble();
+          break;
+        case LAPTOP_WEIGHT_LB:
+          weightKg[i] = in.readDouble() * LaptopFilter.KG_PER_LB;
+          break;
+        case LAPTOP_PRICE_USD:
+          prices[i] = in.readDouble();
+          break;
+        case LAPTOP_RELEASE_YEAR:
+          releaseYears[i] = in.readUInt32();
+          break;
+        default:
+          in.skipField(tag);
+      }
+    }
+  }
+
+  private void parseResolution(CodedInputStream in, int i) throws IOException {
+    int limit = in.pushLimit(in.readRawVarint32());
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      int field = WireFormat.getTagFieldNumber(tag);
+      if (field == RESOLUTION_WIDTH) {
+        screenWidths[i] = in.readUInt32();
+      } else if (field == RESOLUTION_HEIGHT) {
+        screenHeights[i] = in.readUInt32();
+      } else {
+        in.skipField(tag);
+      }
+    }
+    in.popLimit(limit);
+  }
+}
@@ -0,0 +1,130 @@
+package com.kegmil.example.pcbook.service;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server interceptor that records, per method, a latency histogram from the start of a call to its
+ * close, the number of calls in flight and the number of calls closed with each status code.
+ */
+public class MetricsInterceptor implements ServerInterceptor, RpcMetricsMXBean {
+
+  private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    MethodMetrics metrics = methods.computeIfAbsent(
+        call.getMethodDescriptor().getBareMethodName(), name -> new MethodMetrics());
+    long start = System.nanoTime();
+    AtomicBoolean recorded = new AtomicBoolean();
+    metrics.inFlight.incrementAndGet();
+
+    ServerCall<ReqT, RespT> recording = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+      @Override
+      public void close(Status status, Metadata trailers) {
+        if (recorded.compareAndSet(false, true)) {
+          metrics.record(status.getCode(), System.nanoTime() - start);
+        }
+        super.close(status, trailers);
+      }
+    };
+
+    ServerCall.Listener<ReqT> listener = next.startCall(recording, headers);
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+      @Override
+      public void onCancel() {
+        // a call cancelled by the client or a deadline is never closed by the service
+        if (recorded.compareAndSet(false, true)) {
+          metrics.record(Status.Code.CANCELLED, System.nanoTime() - start);
+        }
+        super.onCancel();
+      }
+    };
+  }
+
+  @Override
+  public Map<String, Long> getCalls() {
+    Map<String, Long> calls = new TreeMap<>();
+    methods.forEach((name, metrics) -> calls.put(name, metrics.latency.getTotalCount()));
+    return calls;
+  }
+
+  @Override
+  public Map<String, Long> getInFlight() {
+    Map<String, Long> inFlight = new TreeMap<>();
+    methods.forEach((name, metrics) -> inFlight.put(name, metrics.inFlight.get()));
+    return inFlight;
+  }
+
+  @Override
+  public Map<String, Long> getStatusCodes() {
+    Map<String, Long> codes = new TreeMap<>();
+    methods.forEach((name, metrics) -> {
+      for (Status.Code code : Status.Code.values()) {
+        long count = metrics.codes[code.ordinal()].sum();
+        if (count > 0) {
+          codes.put(name + " " + code, count);
+        }
+      }
+    });
+    return codes;
+  }
+
+  @Override
+  public Map<String, Double> getLatencyMillis() {
+    Map<String, Double> latency = new TreeMap<>();
+    methods.forEach((name, metrics) -> {
+      Histogram histogram = metrics.latency.copy();
+      latency.put(name + " p50", histogram.getValueAtPercentile(50) / 1e6);
+      latency.put(name + " p99", histogram.getValueAtPercentile(99) / 1e6);
+      latency.put(name + " p99.9", histogram.getValueAtPercentile(99.9) / 1e6);
+      latency.put(name + " max", histogram.getMaxValue() / 1e6);
+    });
+    return latency;
+  }
+
+  /**
+   * Returns the latency histogram of a method, in nanoseconds, or null if it was never called.
+   */
+  public Histogram latency(String method) {
+    MethodMetrics metrics = methods.get(method);
+    return metrics == null ? null : metrics.latency;
+  }
+
+  private static final class MethodMetrics {
+    final Histogram latency = new ConcurrentHistogram(MAX_LATENCY_NANOS, 3);
+    final AtomicLong inFlight = new AtomicLong();
+    final LongAdder[] codes = new LongAdder[Status.Code.values().length];
+
+    MethodMetrics() {
+      for (int i = 0; i < codes.length; i++) {
+        codes[i] = new LongAdder();
+      }
+    }
+
+    void record(Status.Code code, long nanos) {
+      inFlight.decrementAndGet();
+      codes[code.ordinal()].increment();
+      latency.recordValue(Math.min(nanos, MAX_LATENCY_NANOS));
+    }
+  }
+}
@@ -0,0 +1,513 @@
+package com.kegmil.example.pcbook.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Laptop store that keeps serialized laptops outside the Java heap.
+ *
+ * <p>Records are appended to fixed-size slabs of direct or memory-mapped buffers. Each record starts
+ * with a header holding the original {@link Filter} thresholds, so a search reads the headers and only
+ * decodes the laptops that match them. IDs are kept in an off-heap open-addressing table from the 128-bit UUID to the
+ * record address, which means laptop IDs must be UUIDs.
+ *
+ * <p>{@link #close()} frees the slabs and the ID table and deletes the slab files. Readers hold the
+ * read lock while they touch a slab, so none can read freed memory; calls made after closing throw
+ * {@link IllegalStateException}.
+ */
+public class OffHeapLaptopStore implements LaptopStore, Closeable {
+
+  public static final int DEFAULT_SLAB_SIZE = 64 << 20;
+
+  // length, price, cores, min GHz, RAM bits
+  private static final int HEADER_SIZE = 4 + 8 + 4 + 8 + 8;
+  private static final int PRICE_OFFSET = 4;
+  private static final int CORES_OFFSET = 12;
+  private static final int CPU_GHZ_OFFSET = 16;
+  private static final int RAM_OFFSET = 24;
+
+  // msb, lsb, address + 1 (0 marks an empty slot)
+  private static final int SLOT_SIZE = 8 + 8 + 8;
+  private static final int PAGE_SHIFT = 20;
+  private static final int PAGE_SLOTS = 1 << PAGE_SHIFT;
+  private static final int INITIAL_SLOTS = 1 << 10;
+
+  private static final int RECORDS_PER_CALL = 4096;
+
+  // sun.misc.Unsafe#invokeCleaner frees a direct or mapped buffer right away; without it the memory
+  // is only released once the buffers are garbage collected
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> type = Class.forName("sun.misc.Unsafe");
+      Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final int slabSize;
+  private final Path directory;
+  private final LaptopSubscriptions subscriptions = new LaptopSubscriptions();
+  private final LaptopStoreMetrics metrics = new LaptopStoreMetrics(this::count, this::tableBytes);
+
+  private ByteBuffer[] slabs;
+  private int[] slabEnds;
+  private int slabCount;
+
+  private ByteBuffer[] table;
+  private long tableSlots;
+  private long entries;
+  private boolean closed;
+
+  public OffHeapLaptopStore() {
+    this(DEFAULT_SLAB_SIZE, null);
+  }
+
+  /**
+   * @param slabSize  size in bytes of each slab; laptops larger than this get a slab of their own
+   * @param directory if not null, slabs are memory-mapped files in this directory instead of direct
+   *                  buffers
+   */
+  public OffHeapLaptopStore(int slabSize, Path directory) {
+    this.slabSize = slabSize;
+    this.directory = directory;
+    slabs = new ByteBuffer[8];
+    slabEnds = new int[8];
+    table = allocateTable(INITIAL_SLOTS);
+    tableSlots = INITIAL_SLOTS;
+  }
+
+  @Override
+  public void save(Laptop laptop) throws Exception {
+    save(UUID.fromString(laptop.getId()), laptop);
+  }
+
+  @Override
+  public void save(UUID id, Laptop laptop) throws Exception {
+    byte[] payload = laptop.toByteArray();
+
+    lock.writeLock().lock();
+    try {
+      checkOpen();
+      long slot = probe(id.getMostSignificantBits(), id.getLeastSignificantBits());
+      if (address(slot) != 0) {
+        metrics.saved(0, 1);
+        throw new AlreadyExistException("laptop Id already exists");
+      }
+
+      long address = append(laptop, payload);
+      ByteBuffer page = table[(int) (slot >>> PAGE_SHIFT)];
+      int offset = (int) (slot & (PAGE_SLOTS - 1)) * SLOT_SIZE;
+      page.putLong(offset, id.getMostSignificantBits());
+      page.putLong(offset + 8, id.getLeastSignificantBits());
+      page.putLong(offset + 16, address + 1);
+
+      entries++;
+      if (entries * 4 > tableSlots * 3) {
+        resize(tableSlots << 1);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    metrics.saved(1, 0);
+    subscriptions.publish(laptop);
+  }
+
+  @Override
+  public Laptop find(String id) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return find(uuid);
+  }
+
+  @Override
+  public Laptop find(UUID uuid) {
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      long address = address(probe(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+      if (address == 0) {
+        return null;
+      }
+      address--;
+      return decode(slabs[(int) (address >>> 32)], (int) address);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void search(Filter filter, LaptopStream stream) {
+    cursor(filter).forEachRemaining(stream);
+  }
+
+  @Override
+  public LaptopSubscription watch(Filter filter, LaptopStream listener) {
+    return subscriptions.add(filter, listener);
+  }
+
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    ByteBuffer[] slabs;
+    int[] ends;
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      slabs = Arrays.copyOf(this.slabs, slabCount);
+      ends = Arrays.copyOf(slabEnds, slabCount);
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    LaptopFilter compiled = LaptopFilter.compile(filter);
+    double maxPrice = compiled.maxPrice;
+    int minCores = compiled.minCores;
+    double minCpuGhz = compiled.minCpuGhz;
+    long minRam = compiled.minRam;
+    boolean extra = compiled.hasExtraCriteria();
+
+    return new LaptopCursor() {
+      private int s;
+      private int position;
+
+      @Override
+      public boolean next(int max, LaptopStream stream) {
+        lock.readLock().lock();
+        try {
+          checkOpen();
+          return scan(max, stream);
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+
+      private boolean scan(int max, LaptopStream stream) {
+        int sent = 0;
+        int scanned = 0;
+        while (s < slabs.length && sent < max && scanned < RECORDS_PER_CALL) {
+          if (position >= ends[s]) {
+            s++;
+            position = 0;
+            continue;
+          }
+
+          ByteBuffer slab = slabs[s];
+          int length = slab.getInt(position);
+          if (slab.getDouble(position + PRICE_OFFSET) <= maxPrice
+              && slab.getInt(position + CORES_OFFSET) >= minCores
+              && slab.getDouble(position + CPU_GHZ_OFFSET) >= minCpuGhz
+              && slab.getLong(position + RAM_OFFSET) >= minRam) {
+            // other criteria are not in the header, so they are checked on the decoded laptop
+            Laptop laptop = decode(slab, position);
+            if (!extra || compiled.test(laptop)) {
+              stream.send(laptop);
+              sent++;
+            }
+          }
+          position += HEADER_SIZE + length;
+          scanned++;
+        }
+
+        while (s < slabs.length && position >= ends[s]) {
+          s++;
+          position = 0;
+        }
+        metrics.scanned(scanned, sent);
+        return s < slabs.length;
+      }
+    };
+  }
+
+  @Override
+  public List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    int keyOffset;
+    switch (ordering.getOrderBy()) {
+      case PRICE:
+        keyOffset = PRICE_OFFSET;
+        break;
+      case CPU_GHZ:
+        keyOffset = CPU_GHZ_OFFSET;
+        break;
+      case RAM:
+        keyOffset = RAM_OFFSET;
+        break;
+      default:
+        // the sort key is not in the header, so every matching laptop is decoded
+        return LaptopStore.super.searchTop(filter, ordering, limit, after);
+    }
+
+    LaptopFilter compiled = LaptopFilter.compile(filter);
+    TopLaptops top = new TopLaptops(ordering, limit, after);
+    lock.readLock().lock();
+    try {
+      checkOpen();
+      collectTop(compiled, keyOffset, top);
+    } finally {
+      lock.readLock().unlock();
+    }
+    return top.result();
+  }
+
+  // called with the read lock held
+  private void collectTop(LaptopFilter compiled, int keyOffset, TopLaptops top) {
+    int scanned = 0;
+    int hits = 0;
+    for (int s = 0; s < slabCount; s++) {
+      ByteBuffer slab = slabs[s];
+      for (int position = 0; position < slabEnds[s]; position += HEADER_SIZE + slab.getInt(position)) {
+        scanned++;
+        if (slab.getDouble(position + PRICE_OFFSET) > compiled.maxPrice
+            || slab.getInt(position + CORES_OFFSET) < compiled.minCores
+            || slab.getDouble(position + CPU_GHZ_OFFSET) < compiled.minCpuGhz
+            || slab.getLong(position + RAM_OFFSET) < compiled.minRam) {
+          continue;
+        }
+
+        long key = keyOffset == RAM_OFFSET
+            ? slab.getLong(position + RAM_OFFSET)
+            : SortedColumnIndex.sortable(slab.getDouble(position + keyOffset));
+        if (top.rejects(key)) {
+          continue;
+        }
+        Laptop laptop = decode(slab, position);
+        if (!compiled.hasExtraCriteria() || compiled.test(laptop)) {
+          top.send(laptop);
+          hits++;
+        }
+      }
+    }
+    metrics.scanned(scanned, hits);
+  }
+
+  /**
+   * Returns the counters of this store, which can be registered as an MXBean. The index bytes are
+   * those of the off-heap ID table.
+   */
+  public LaptopStoreMetrics metrics() {
+    return metrics;
+  }
+
+  @Override
+  public int count() {
+    lock.readLock().lock();
+    try {
+      return (int) entries;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private long tableBytes() {
+    lock.readLock().lock();
+    try {
+      return closed ? 0 : tableSlots * SLOT_SIZE;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Frees the slabs and the ID table and deletes the slab files, if any. Closing twice does nothing.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+
+      for (int s = 0; s < slabCount; s++) {
+        free(slabs[s]);
+        slabs[s] = null;
+        if (directory != null) {
+          Files.deleteIfExists(slabFile(s));
+        }
+      }
+      slabCount = 0;
+      for (ByteBuffer page : table) {
+        free(page);
+      }
+      table = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("laptop store is closed");
+    }
+  }
+
+  private static void free(ByteBuffer buffer) {
+    if (INVOKE_CLEANER == null) {
+      return;
+    }
+    try {
+      INVOKE_CLEANER.invoke(UNSAFE, buffer);
+    } catch (ReflectiveOperationException e) {
+      // left to the garbage collector
+    }
+  }
+
+  private long append(Laptop laptop, byte[] payload) throws IOException {
+    int recordSize = HEADER_SIZE + payload.length;
+    if (slabCount == 0 || slabs[slabCount - 1].capacity() - slabEnds[slabCount - 1] < recordSize) {
+      addSlab(Math.max(slabSize, recordSize));
+    }
+
+    int s = slabCount - 1;
+    ByteBuffer slab = slabs[s];
+    int position = slabEnds[s];
+    slab.putInt(position, payload.length);
+    slab.putDouble(position + PRICE_OFFSET, laptop.getPriceUsd());
+    slab.putInt(position + CORES_OFFSET, laptop.getCpu().getNumberCores());
+    slab.putDouble(position + CPU_GHZ_OFFSET, laptop.getCpu().getMinGhz());
+    slab.putLong(position + RAM_OFFSET, LaptopColumns.toBit(laptop.getRam()));
+
+    ByteBuffer target = slab.duplicate();
+    target.position(position + HEADER_SIZE);
+    target.put(payload);
+
+    slabEnds[s] = position + recordSize;
+    return ((long) s << 32) | position;
+  }
+
+  private void addSlab(int size) throws IOException {
+    if (slabCount == slabs.length) {
+      slabs = Arrays.copyOf(slabs, slabCount << 1);
+      slabEnds = Arrays.copyOf(slabEnds, slabCount << 1);
+    }
+
+    ByteBuffer slab;
+    if (directory == null) {
+      slab = ByteBuffer.allocateDirect(size);
+    } else {
+      try (FileChannel channel = FileChannel.open(slabFile(slabCount), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        slab = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+    slabs[slabCount++] = slab;
+  }
+
+  private Path slabFile(int slab) {
+    return directory.resolve(String.format("slab-%06d.bin", slab));
+  }
+
+  private static Laptop decode(ByteBuffer slab, int position) {
+    ByteBuffer record = slab.duplicate();
+    record.limit(position + HEADER_SIZE + slab.getInt(position));
+    record.position(position + HEADER_SIZE);
+    try {
+      return Laptop.parseFrom(record);
+    } catch (InvalidProtocolBufferException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the slot holding the given UUID, or the empty slot where it would be inserted.
+   */
+  private long probe(long msb, long lsb) {
+    long mask = tableSlots - 1;
+    long slot = hash(msb, lsb) & mask;
+    while (true) {
+      ByteBuffer page = table[(int) (slot >>> PAGE_SHIFT)];
+      int offset = (int) (slot & (PAGE_SLOTS - 1)) * SLOT_SIZE;
+      if (page.getLong(offset + 16) == 0
+          || (page.getLong(offset) == msb && page.getLong(offset + 8) == lsb)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private long address(long slot) {
+    ByteBuffer page = table[(int) (slot >>> PAGE_SHIFT)];
+    return page.getLong((int) (slot & (PAGE_SLOTS - 1)) * SLOT_SIZE + 16);
+  }
+
+  private void resize(long slots) {
+    ByteBuffer[] old = table;
+    long oldSlots = tableSlots;
+    table = allocateTable(slots);
+    tableSlots = slots;
+
+    for (long slot = 0; slot < oldSlots; slot++) {
+      ByteBuffer page = old[(int) (slot >>> PAGE_SHIFT)];
+      int offset = (int) (slot & (PAGE_SLOTS - 1)) * SLOT_SIZE;
+      long address = page.getLong(offset + 16);
+      if (address == 0) {
+        continue;
+      }
+
+      long msb = page.getLong(offset);
+      long lsb = page.getLong(offset + 8);
+      long target = probe(msb, lsb);
+      ByteBuffer targetPage = table[(int) (target >>> PAGE_SHIFT)];
+      int targetOffset = (int) (target & (PAGE_SLOTS - 1)) * SLOT_SIZE;
+      targetPage.putLong(targetOffset, msb);
+      targetPage.putLong(targetOffset + 8, lsb);
+      targetPage.putLong(targetOffset + 16, address);
+    }
+
+    // readers only use the table under the read lock, so no one holds the old pages any more
+    for (ByteBuffer page : old) {
+      free(page);
+    }
+  }
+
+  private static ByteBuffer[] allocateTable(long slots) {
+    int pages = (int) Math.max(1, slots >>> PAGE_SHIFT);
+    int pageSlots = (int) Math.min(slots, PAGE_SLOTS);
+    ByteBuffer[] result = new ByteBuffer[pages];
+    for (int i = 0; i < pages; i++) {
+      result[i] = ByteBuffer.allocateDirect(pageSlots * SLOT_SIZE);
+    }
+    return result;
+  }
+
+  private static long hash(long msb, long lsb) {
+    long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,71 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest.OrderBy;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position of the last laptop of a page, encoded as the opaque {@code next_page_token}. The next page
+ * starts strictly after it.
+ */
+public final class PageToken {
+
+  private static final byte VERSION = 1;
+  private static final int SIZE = 1 + 4 + 1 + 8 + 8 + 8;
+
+  private final LaptopOrdering ordering;
+  private final long key;
+  private final UUID id;
+
+  private PageToken(LaptopOrdering ordering, long key, UUID id) {
+    this.ordering = ordering;
+    this.key = key;
+    this.id = id;
+  }
+
+  public static PageToken after(LaptopOrdering ordering, Laptop laptop) {
+    return new PageToken(ordering, ordering.key(laptop), UUID.fromString(laptop.getId()));
+  }
+
+  /**
+   * @throws IllegalArgumentException if the token is malformed or was issued for another ordering
+   */
+  public static PageToken decode(String token, LaptopOrdering ordering) {
+    byte[] bytes = Base64.getUrlDecoder().decode(token);
+    if (bytes.length != SIZE) {
+      throw new IllegalArgumentException("invalid page token");
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    if (buffer.get() != VERSION
+        || buffer.getInt() != ordering.getOrderBy().getNumber()
+        || (buffer.get() != 0) != ordering.isDescending()) {
+      throw new IllegalArgumentException("page token does not match the requested order");
+    }
+
+    long key = buffer.getLong();
+    return new PageToken(ordering, key, new UUID(buffer.getLong(), buffer.getLong()));
+  }
+
+  public String encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(SIZE)
+        .put(VERSION)
+        .putInt(ordering.getOrderBy().getNumber())
+        .put((byte) (ordering.isDescending() ? 1 : 0))
+        .putLong(key)
+        .putLong(id.getMostSignificantBits())
+        .putLong(id.getLeastSignificantBits());
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  public long getKey() {
+    return key;
+  }
+
+  public UUID getId() {
+    return id;
+  }
+}
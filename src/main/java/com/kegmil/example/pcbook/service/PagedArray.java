@@ -0,0 +1,57 @@
+package com.kegmil.example.pcbook.service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Growable array of references split into fixed-size pages. Growing only adds pages, so a value
+ * set concurrently with a grow is never lost in an old copy, and every read and write is volatile,
+ * so values set after they were published, such as lazily decoded laptops, are safely published.
+ */
+final class PagedArray<T> {
+
+  private static final int PAGE_SHIFT = 12;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private volatile AtomicReferenceArray<T>[] pages;
+
+  @SuppressWarnings("unchecked")
+  PagedArray(int capacity) {
+    pages = new AtomicReferenceArray[0];
+    ensureCapacity(capacity);
+  }
+
+  T get(int index) {
+    return pages[index >>> PAGE_SHIFT].get(index & PAGE_MASK);
+  }
+
+  void set(int index, T value) {
+    pages[index >>> PAGE_SHIFT].set(index & PAGE_MASK, value);
+  }
+
+  boolean compareAndSet(int index, T expected, T value) {
+    return pages[index >>> PAGE_SHIFT].compareAndSet(index & PAGE_MASK, expected, value);
+  }
+
+  int capacity() {
+    return pages.length << PAGE_SHIFT;
+  }
+
+  /**
+   * Adds pages until {@code capacity} indexes fit. Callers serialize growing among themselves.
+   */
+  void ensureCapacity(int capacity) {
+    AtomicReferenceArray<T>[] pages = this.pages;
+    int count = (capacity + PAGE_MASK) >>> PAGE_SHIFT;
+    if (count <= pages.length) {
+      return;
+    }
+
+    AtomicReferenceArray<T>[] grown = Arrays.copyOf(pages, count);
+    for (int i = pages.length; i < count; i++) {
+      grown[i] = new AtomicReferenceArray<>(PAGE_SIZE);
+    }
+    this.pages = grown;
+  }
+}
@@ -0,0 +1,51 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.protobuf.ProtoUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Response marshaller for {@code searchLaptop} whose responses are either a
+ * {@link SearchLaptopResponse} or the {@code byte[]} a store encoded for one at save time. The bytes
+ * are written as they are, so no message is built or looked up per hit.
+ */
+class PreEncodedResponseMarshaller implements MethodDescriptor.Marshaller<Object> {
+
+  private final MethodDescriptor.Marshaller<SearchLaptopResponse> delegate =
+      ProtoUtils.marshaller(SearchLaptopResponse.getDefaultInstance());
+
+  @Override
+  public InputStream stream(Object value) {
+    if (value instanceof byte[]) {
+      return new EncodedStream((byte[]) value);
+    }
+    return delegate.stream((SearchLaptopResponse) value);
+  }
+
+  @Override
+  public Object parse(InputStream stream) {
+    return delegate.parse(stream);
+  }
+
+  private static final class EncodedStream extends ByteArrayInputStream implements Drainable, KnownLength {
+
+    EncodedStream(byte[] encoded) {
+      super(encoded);
+    }
+
+    @Override
+    public int drainTo(OutputStream target) throws IOException {
+      int length = count - pos;
+      target.write(buf, pos, length);
+      pos = count;
+      return length;
+    }
+  }
+}
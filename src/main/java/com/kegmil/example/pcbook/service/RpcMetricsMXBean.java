@@ -0,0 +1,17 @@
+package com.kegmil.example.pcbook.service;
+
+import java.util.Map;
+
+/**
+ * Per-method RPC metrics, as exposed over JMX. Maps are keyed by method name, or by method name and
+ * status code or percentile separated by a space.
+ */
+public interface RpcMetricsMXBean {
+  Map<String, Long> getCalls();
+
+  Map<String, Long> getInFlight();
+
+  Map<String, Long> getStatusCodes();
+
+  Map<String, Double> getLatencyMillis();
+}
@@ -0,0 +1,166 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
+import com.kegmil.example.pcbook.service.ExecutorHandoffInterceptor.Lane;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * How {@link LaptopServer} runs its handlers.
+ *
+ * <ul>
+ *   <li>{@link #cachedThreadPool()}: gRPC's default, one thread per concurrently running callback
+ *   with no bound.
+ *   <li>{@link #bounded}: a fixed pool that admits {@code threads + queueSize} calls at a time; calls
+ *   that do not fit are rejected with {@code RESOURCE_EXHAUSTED}. A watch holds its slot while open.
+ *   <li>{@link #perMethod}: like {@code bounded}, with a pool per kind of call, so that long scans
+ *   cannot starve cheap creates. Searches and creates admit {@code threads + queueSize} calls each.
+ *   Aggregations scan the whole catalog, so they get their own pool of {@code searchThreads} threads
+ *   and are never queued. Watches are long-lived but their callbacks are short, so they get a pool
+ *   of {@code createThreads} threads and admit {@code queueSize} open watches.
+ *   <li>{@link #virtualThreads()}: a virtual thread per task, on JDK 21 or later, with no limit.
+ * </ul>
+ */
+public final class ServerExecutionModel {
+
+  private final String name;
+  private final List<ExecutorService> executors;
+  // by full method name, null when handlers run on the server's own executor
+  private final Function<String, Lane> laneForMethod;
+
+  private ServerExecutionModel(String name, List<ExecutorService> executors,
+                               Function<String, Lane> laneForMethod) {
+    this.name = name;
+    this.executors = executors;
+    this.laneForMethod = laneForMethod;
+  }
+
+  public static ServerExecutionModel cachedThreadPool() {
+    return new ServerExecutionModel("cached", Collections.emptyList(), null);
+  }
+
+  public static ServerExecutionModel bounded(int threads, int queueSize) {
+    ExecutorService pool = fixedPool("laptop-handler", threads);
+    Lane lane = new Lane(pool, threads + queueSize);
+    return new ServerExecutionModel("bounded", Collections.singletonList(pool), method -> lane);
+  }
+
+  public static ServerExecutionModel perMethod(int createThreads, int searchThreads, int queueSize) {
+    ExecutorService createPool = fixedPool("laptop-create", createThreads);
+    ExecutorService searchPool = fixedPool("laptop-search", searchThreads);
+    ExecutorService aggregatePool = fixedPool("laptop-aggregate", searchThreads);
+    ExecutorService watchPool = fixedPool("laptop-watch", createThreads);
+    Lane creates = new Lane(createPool, createThreads + queueSize);
+    Lane searches = new Lane(searchPool, searchThreads + queueSize);
+    Lane aggregates = new Lane(aggregatePool, searchThreads);
+    Lane watches = new Lane(watchPool, queueSize);
+
+    String createLaptop = LaptopServiceGrpc.getCreateLaptopMethod().getFullMethodName();
+    String createLaptops = LaptopServiceGrpc.getCreateLaptopsMethod().getFullMethodName();
+    String aggregateLaptops = LaptopServiceGrpc.getAggregateLaptopsMethod().getFullMethodName();
+    String watchLaptops = LaptopServiceGrpc.getWatchLaptopsMethod().getFullMethodName();
+    return new ServerExecutionModel("per-method",
+        Arrays.asList(createPool, searchPool, aggregatePool, watchPool),
+        method -> {
+          if (method.equals(createLaptop) || method.equals(createLaptops)) {
+            return creates;
+          } else if (method.equals(aggregateLaptops)) {
+            return aggregates;
+          } else if (method.equals(watchLaptops)) {
+            return watches;
+          }
+          return searches;
+        });
+  }
+
+  /**
+   * Runs every callback on a new virtual thread. Virtual threads are looked up reflectively so that
+   * the server still builds for older JDKs.
+   *
+   * @throws UnsupportedOperationException if the JDK has no virtual threads
+   */
+  public static ServerExecutionModel virtualThreads() {
+    ExecutorService executor;
+    try {
+      executor = (ExecutorService) Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      throw new UnsupportedOperationException("virtual threads need JDK 21 or later", e);
+    }
+    Lane lane = new Lane(executor);
+    return new ServerExecutionModel("virtual", Collections.singletonList(executor), method -> lane);
+  }
+
+  /**
+   * Parses {@code cached}, {@code bounded}, {@code per-method} or {@code virtual}, with pool sizes
+   * derived from the number of processors.
+   */
+  public static ServerExecutionModel parse(String name) {
+    int processors = Runtime.getRuntime().availableProcessors();
+    switch (name) {
+      case "cached":
+        return cachedThreadPool();
+      case "bounded":
+        return bounded(processors * 2, processors * 64);
+      case "per-method":
+        return perMethod(processors, processors, processors * 64);
+      case "virtual":
+        return virtualThreads();
+      default:
+        throw new IllegalArgumentException("unknown execution model: " + name);
+    }
+  }
+
+  /**
+   * Configures the server builder and returns the interceptor to apply to the laptop service, or
+   * null if handlers run on the server's own executor.
+   */
+  ServerInterceptor apply(ServerBuilder<?> serverBuilder) {
+    if (laneForMethod == null) {
+      return null;
+    }
+    // the transport only hands calls over, so it needs no threads of its own
+    serverBuilder.directExecutor();
+    return new ExecutorHandoffInterceptor(laneForMethod);
+  }
+
+  void shutdown() {
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * A pool whose queue is bounded by the calls its lane admits, as each call queues at most one task,
+   * so it never rejects a task while it runs.
+   */
+  private static ExecutorService fixedPool(String name, int threads) {
+    AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(),
+        r -> {
+          Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+}
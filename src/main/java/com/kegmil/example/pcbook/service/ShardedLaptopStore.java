@@ -0,0 +1,384 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Laptop store that partitions laptops by ID hash into shards and searches the shards in parallel on
+ * a fork-join pool once the catalog is larger than a threshold.
+ *
+ * <p>A parallel cursor scans ahead on every shard at once into a bounded buffer per shard, and
+ * results are sent in the order the shards produce them. A shard's scan stops when its buffer is
+ * full and is rescheduled once the consumer has drained half of it, so a slow client holds at most
+ * {@code scanAhead} laptops per shard and no pool thread waits for it. While no shard has a match
+ * buffered, {@code next} waits a bounded time and then returns an empty page, so the caller can check
+ * for cancellation; a cancelled cursor stops scheduling its scans.
+ */
+public class ShardedLaptopStore implements LaptopStore {
+
+  public static final int DEFAULT_PARALLELISM_THRESHOLD = 100_000;
+  public static final int DEFAULT_SCAN_AHEAD = 1024;
+  // longest a parallel cursor's next waits for a match before returning an empty page
+  static final long MAX_WAIT_MILLIS = 20;
+
+  private final LaptopStore[] shards;
+  private final int parallelismThreshold;
+  private final ForkJoinPool pool;
+  private final int scanAhead;
+  private final AtomicInteger size = new AtomicInteger();
+
+  public ShardedLaptopStore() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_PARALLELISM_THRESHOLD,
+        ForkJoinPool.commonPool(), InMemoryLaptopStore::new);
+  }
+
+  /**
+   * @param parallelismThreshold catalogs with fewer laptops than this are searched on the caller
+   *                             thread
+   */
+  public ShardedLaptopStore(int shardCount, int parallelismThreshold, ForkJoinPool pool,
+                            Supplier<? extends LaptopStore> shardFactory) {
+    this(shardCount, parallelismThreshold, DEFAULT_SCAN_AHEAD, pool, shardFactory);
+  }
+
+  /**
+   * @param scanAhead most laptops buffered per shard by a parallel cursor
+   */
+  public ShardedLaptopStore(int shardCount, int parallelismThreshold, int scanAhead, ForkJoinPool pool,
+                            Supplier<? extends LaptopStore> shardFactory) {
+    this.scanAhead = scanAhead;
+    this.shards = new LaptopStore[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = shardFactory.get();
+      // shards may have recovered laptops, such as durable ones
+      size.addAndGet(Math.max(0, shards[i].count()));
+    }
+    this.parallelismThreshold = parallelismThreshold;
+    this.pool = pool;
+  }
+
+  @Override
+  public void save(Laptop laptop) throws Exception {
+    save(UUID.fromString(laptop.getId()), laptop);
+  }
+
+  @Override
+  public void save(UUID id, Laptop laptop) throws Exception {
+    shard(id).save(id, laptop);
+    size.incrementAndGet();
+  }
+
+  @Override
+  public BitSet saveAll(Collection<Laptop> laptops) throws Exception {
+    List<List<Laptop>> batches = new ArrayList<>(shards.length);
+    List<List<Integer>> positions = new ArrayList<>(shards.length);
+    for (int i = 0; i < shards.length; i++) {
+      batches.add(new ArrayList<>());
+      positions.add(new ArrayList<>());
+    }
+
+    int position = 0;
+    for (Laptop laptop : laptops) {
+      int shard = shardIndex(UUID.fromString(laptop.getId()));
+      batches.get(shard).add(laptop);
+      positions.get(shard).add(position++);
+    }
+
+    BitSet duplicates = new BitSet(position);
+    for (int i = 0; i < shards.length; i++) {
+      if (batches.get(i).isEmpty()) {
+        continue;
+      }
+
+      BitSet shardDuplicates = shards[i].saveAll(batches.get(i));
+      for (int j = shardDuplicates.nextSetBit(0); j >= 0; j = shardDuplicates.nextSetBit(j + 1)) {
+        duplicates.set(positions.get(i).get(j));
+      }
+      size.addAndGet(batches.get(i).size() - shardDuplicates.cardinality());
+    }
+    return duplicates;
+  }
+
+  @Override
+  public Laptop find(String id) {
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return find(uuid);
+  }
+
+  @Override
+  public Laptop find(UUID id) {
+    return shard(id).find(id);
+  }
+
+  @Override
+  public int count() {
+    return size.get();
+  }
+
+  @Override
+  public void search(Filter filter, LaptopStream stream) {
+    if (size.get() < parallelismThreshold) {
+      for (LaptopStore shard : shards) {
+        shard.search(filter, stream);
+      }
+      return;
+    }
+    cursor(filter).forEachRemaining(stream);
+  }
+
+  @Override
+  public LaptopCursor cursor(Filter filter) {
+    if (size.get() >= parallelismThreshold) {
+      return new ScanAheadCursor(filter);
+    }
+
+    return new LaptopCursor() {
+      private int shard;
+      private LaptopCursor current = shards[0].cursor(filter);
+
+      @Override
+      public boolean next(int max, LaptopStream stream) {
+        if (current.next(max, stream)) {
+          return true;
+        }
+        if (++shard == shards.length) {
+          return false;
+        }
+        current = shards[shard].cursor(filter);
+        return true;
+      }
+
+      @Override
+      public void cancel() {
+        current.cancel();
+      }
+    };
+  }
+
+  @Override
+  public List<Laptop> searchTop(Filter filter, LaptopOrdering ordering, int limit, PageToken after) {
+    // each shard's top list is a superset of its share of the overall top list, and holds at most
+    // limit laptops, so the shards can be searched in parallel
+    TopLaptops top = new TopLaptops(ordering, limit, after);
+    if (size.get() < parallelismThreshold) {
+      for (LaptopStore shard : shards) {
+        for (Laptop laptop : shard.searchTop(filter, ordering, limit, after)) {
+          top.send(laptop);
+        }
+      }
+      return top.result();
+    }
+
+    List<ForkJoinTask<List<Laptop>>> tasks = new ArrayList<>(shards.length);
+    for (LaptopStore shard : shards) {
+      tasks.add(pool.submit(() -> shard.searchTop(filter, ordering, limit, after)));
+    }
+    for (ForkJoinTask<List<Laptop>> task : tasks) {
+      for (Laptop laptop : task.join()) {
+        top.send(laptop);
+      }
+    }
+    return top.result();
+  }
+
+  @Override
+  public void aggregate(Filter filter, LaptopAggregation aggregation) {
+    for (LaptopStore shard : shards) {
+      shard.aggregate(filter, aggregation);
+    }
+  }
+
+  @Override
+  public LaptopSubscription watch(Filter filter, LaptopStream listener) {
+    LaptopSubscription[] subscriptions = new LaptopSubscription[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      subscriptions[i] = shards[i].watch(filter, listener);
+    }
+    return () -> {
+      for (LaptopSubscription subscription : subscriptions) {
+        subscription.cancel();
+      }
+    };
+  }
+
+  private final class ScanAheadCursor implements LaptopCursor {
+    private final Object lock = new Object();
+    private final Scan[] scans;
+    private final List<Laptop> taken = new ArrayList<>();
+    private final List<Scan> drained = new ArrayList<>();
+    // guarded by the lock
+    private int running;
+    private int next;
+    private RuntimeException failure;
+    private boolean cancelled;
+
+    ScanAheadCursor(Filter filter) {
+      scans = new Scan[shards.length];
+      for (int i = 0; i < shards.length; i++) {
+        scans[i] = new Scan(shards[i].cursor(filter));
+      }
+      running = scans.length;
+      for (Scan scan : scans) {
+        scan.scheduled = true;
+        pool.execute(scan);
+      }
+    }
+
+    @Override
+    public boolean next(int max, LaptopStream stream) {
+      boolean more;
+      synchronized (lock) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+        while (running > 0 && failure == null && !cancelled && isEmpty()) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return true;
+          }
+          try {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for shard scans", e);
+          }
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        if (cancelled) {
+          return false;
+        }
+
+        // round robin, so that no shard's buffer is left full for long
+        for (int n = 0; n < scans.length && taken.size() < max; n++) {
+          Scan scan = scans[next];
+          next = (next + 1) % scans.length;
+          while (!scan.buffer.isEmpty() && taken.size() < max) {
+            taken.add(scan.buffer.poll());
+          }
+          if (!scan.done && !scan.scheduled && scan.buffer.size() <= scanAhead / 2) {
+            scan.scheduled = true;
+            drained.add(scan);
+          }
+        }
+        more = running > 0 || !isEmpty();
+      }
+
+      for (Scan scan : drained) {
+        pool.execute(scan);
+      }
+      drained.clear();
+      for (Laptop laptop : taken) {
+        stream.send(laptop);
+      }
+      taken.clear();
+      return more;
+    }
+
+    @Override
+    public void cancel() {
+      synchronized (lock) {
+        cancelled = true;
+        for (Scan scan : scans) {
+          scan.buffer.clear();
+        }
+        lock.notifyAll();
+      }
+    }
+
+    // called with the lock held
+    private boolean isEmpty() {
+      for (Scan scan : scans) {
+        if (!scan.buffer.isEmpty()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private final class Scan implements Runnable {
+      private final LaptopCursor cursor;
+      private final List<Laptop> batch = new ArrayList<>();
+      // guarded by the lock
+      final ArrayDeque<Laptop> buffer = new ArrayDeque<>();
+      boolean scheduled;
+      boolean done;
+
+      Scan(LaptopCursor cursor) {
+        this.cursor = cursor;
+      }
+
+      @Override
+      public void run() {
+        while (true) {
+          int room;
+          synchronized (lock) {
+            room = scanAhead - buffer.size();
+            if (room <= 0 || failure != null || cancelled) {
+              scheduled = false;
+              return;
+            }
+          }
+
+          // only one run of a scan is scheduled at a time, so the shard cursor is not shared
+          boolean more;
+          try {
+            more = cursor.next(room, batch::add);
+          } catch (RuntimeException e) {
+            synchronized (lock) {
+              failure = e;
+              lock.notifyAll();
+            }
+            return;
+          }
+
+          synchronized (lock) {
+            if (cancelled) {
+              batch.clear();
+              scheduled = false;
+              return;
+            }
+            buffer.addAll(batch);
+            batch.clear();
+            if (!more) {
+              done = true;
+              scheduled = false;
+              running--;
+            }
+            lock.notifyAll();
+            if (!more) {
+              return;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private LaptopStore shard(UUID id) {
+    return shards[shardIndex(id)];
+  }
+
+  private int shardIndex(UUID id) {
+    long h = id.getMostSignificantBits() ^ id.getLeastSignificantBits();
+    h ^= h >>> 32;
+    h *= 0x9E3779B97F4A7C15L;
+    return (int) Math.floorMod(h >>> 32, (long) shards.length);
+  }
+}
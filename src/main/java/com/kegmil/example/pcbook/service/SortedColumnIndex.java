@@ -0,0 +1,170 @@
+package com.kegmil.example.pcbook.service;
+
+/**
+ * Sorted (key, ordinal) pairs for one filterable column.
+ *
+ * <p>The pairs are kept in two immutable sorted runs: a large base run and a small pending run that
+ * new pairs are merged into. The pending run is merged into the base once it holds about the square
+ * root of the base's size, which balances copying the pending run on every write against merging
+ * the base, and a read is a volatile read of the current {@link Runs} that never blocks or copies.
+ */
+class SortedColumnIndex {
+
+  private static final Run EMPTY = new Run(new long[0], new int[0]);
+  private static final int MIN_PENDING = 1024;
+
+  private volatile Runs runs = new Runs(EMPTY, EMPTY);
+
+  /**
+   * Adds the first {@code count} pairs. The arrays are sorted in place.
+   */
+  synchronized void addAll(long[] keys, int[] ordinals, int count) {
+    sort(keys, ordinals, new long[count], new int[count], 0, count);
+    Runs current = runs;
+    Run pending = merge(current.pending, new Run(keys, ordinals, count));
+    if (pending.size() >= Math.max(MIN_PENDING, (int) Math.sqrt(current.base.size()))) {
+      runs = new Runs(merge(current.base, pending), EMPTY);
+    } else {
+      runs = new Runs(current.base, pending);
+    }
+  }
+
+  Runs runs() {
+    return runs;
+  }
+
+  long bytes() {
+    Runs runs = this.runs;
+    return runs.base.bytes() + runs.pending.bytes();
+  }
+
+  private static void sort(long[] keys, int[] ordinals, long[] keyBuffer, int[] ordinalBuffer,
+                           int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+
+    int mid = (from + to) >>> 1;
+    sort(keys, ordinals, keyBuffer, ordinalBuffer, from, mid);
+    sort(keys, ordinals, keyBuffer, ordinalBuffer, mid, to);
+    if (keys[mid - 1] <= keys[mid]) {
+      return;
+    }
+
+    System.arraycopy(keys, from, keyBuffer, from, to - from);
+    System.arraycopy(ordinals, from, ordinalBuffer, from, to - from);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j == to || (i < mid && keyBuffer[i] <= keyBuffer[j])) {
+        keys[k] = keyBuffer[i];
+        ordinals[k] = ordinalBuffer[i++];
+      } else {
+        keys[k] = keyBuffer[j];
+        ordinals[k] = ordinalBuffer[j++];
+      }
+    }
+  }
+
+  private static Run merge(Run left, Run right) {
+    if (left.size() == 0) {
+      return right;
+    }
+    int n = left.size() + right.size();
+    long[] keys = new long[n];
+    int[] ordinals = new int[n];
+
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < n; k++) {
+      if (j == right.size() || (i < left.size() && left.keys[i] <= right.keys[j])) {
+        keys[k] = left.keys[i];
+        ordinals[k] = left.ordinals[i++];
+      } else {
+        keys[k] = right.keys[j];
+        ordinals[k] = right.ordinals[j++];
+      }
+    }
+    return new Run(keys, ordinals);
+  }
+
+  /**
+   * Maps a double onto a long whose signed order matches the numeric order of the doubles.
+   */
+  static long sortable(double value) {
+    long bits = Double.doubleToLongBits(value + 0.0);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+
+  /**
+   * The base and pending runs of an index at one point in time. A key range is the union of its
+   * range in each run.
+   */
+  static final class Runs {
+    final Run base;
+    final Run pending;
+
+    private Runs(Run base, Run pending) {
+      this.base = base;
+      this.pending = pending;
+    }
+
+    int size() {
+      return base.size() + pending.size();
+    }
+  }
+
+  static final class Run {
+    final long[] keys;
+    final int[] ordinals;
+    private final int size;
+
+    private Run(long[] keys, int[] ordinals) {
+      this(keys, ordinals, keys.length);
+    }
+
+    private Run(long[] keys, int[] ordinals, int size) {
+      this.keys = keys;
+      this.ordinals = ordinals;
+      this.size = size;
+    }
+
+    int size() {
+      return size;
+    }
+
+    long bytes() {
+      return (long) keys.length * Long.BYTES + (long) ordinals.length * Integer.BYTES;
+    }
+
+    /** Index of the first key that is {@code >= key}. */
+    int lowerBound(long key) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (keys[mid] < key) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /** Index of the first key that is {@code > key}. */
+    int upperBound(long key) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (keys[mid] <= key) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package com.kegmil.example.pcbook.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense codes to strings, such as brands, so that columns can store them as ints. Code 0 is
+ * the empty string, the default of an unset proto3 field. Codes are never reassigned, and
+ * {@link #size()} is greater than every code handed out before it was read.
+ */
+final class StringDictionary {
+
+  private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+  private volatile String[] values = {""};
+
+  StringDictionary() {
+    codes.put("", 0);
+  }
+
+  int code(String value) {
+    Integer code = codes.get(value);
+    return code != null ? code : add(value);
+  }
+
+  private synchronized int add(String value) {
+    Integer code = codes.get(value);
+    if (code != null) {
+      return code;
+    }
+
+    // the value is published before its code, so a code can always be resolved
+    String[] values = Arrays.copyOf(this.values, this.values.length + 1);
+    values[values.length - 1] = value;
+    this.values = values;
+    codes.put(value, values.length - 1);
+    return values.length - 1;
+  }
+
+  /**
+   * Returns the code of the value, or -1 if it was never added.
+   */
+  int find(String value) {
+    Integer code = codes.get(value);
+    return code != null ? code : -1;
+  }
+
+  String value(int code) {
+    return values[code];
+  }
+
+  int size() {
+    return values.length;
+  }
+}
@@ -0,0 +1,109 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Keeps the first {@code limit} laptops, in a {@link LaptopOrdering}, of the laptops sent to it that
+ * come after an optional page token. Memory is bounded by {@code limit}, which must be positive.
+ */
+class TopLaptops implements LaptopStream {
+
+  private final LaptopOrdering ordering;
+  private final int limit;
+  private final PageToken after;
+  // worst entry at the head, so it can be evicted when a better one arrives
+  private final PriorityQueue<Entry> heap;
+
+  TopLaptops(LaptopOrdering ordering, int limit, PageToken after) {
+    this.ordering = ordering;
+    this.limit = limit;
+    this.after = after;
+    this.heap = new PriorityQueue<>(Math.min(limit, 1024), (a, b) -> compare(b, a));
+  }
+
+  @Override
+  public void send(Laptop laptop) {
+    long key = ordering.key(laptop);
+    if (isClosedAfter(key)) {
+      return;
+    }
+
+    if (after != null) {
+      int relative = ordering.compareKeys(key, after.getKey());
+      if (relative < 0 || (relative == 0 && ordering.compare(key, id(laptop), after.getKey(), after.getId()) <= 0)) {
+        return;
+      }
+    }
+
+    Entry entry = new Entry(key, laptop);
+    if (heap.size() < limit) {
+      heap.add(entry);
+    } else if (compare(entry, heap.peek()) < 0) {
+      heap.poll();
+      heap.add(entry);
+    }
+  }
+
+  /**
+   * Returns true if no laptop with this key or any later key can make it into the result, which
+   * lets callers walking a sorted index stop early.
+   */
+  boolean isClosedAfter(long key) {
+    return heap.size() == limit && ordering.compareKeys(key, heap.peek().key) > 0;
+  }
+
+  /**
+   * Returns true if a laptop with this key cannot make it into the result, because it comes before
+   * the page token or after the current top laptops. Lets callers skip decoding it.
+   */
+  boolean rejects(long key) {
+    return isClosedAfter(key) || (after != null && ordering.compareKeys(key, after.getKey()) < 0);
+  }
+
+  List<Laptop> result() {
+    List<Entry> entries = new ArrayList<>(heap);
+    entries.sort(this::compare);
+
+    List<Laptop> laptops = new ArrayList<>(entries.size());
+    for (Entry entry : entries) {
+      laptops.add(entry.laptop);
+    }
+    return laptops;
+  }
+
+  private int compare(Entry a, Entry b) {
+    int result = ordering.compareKeys(a.key, b.key);
+    if (result != 0) {
+      return result;
+    }
+    return ordering.compare(a.key, a.id(), b.key, b.id());
+  }
+
+  private static UUID id(Laptop laptop) {
+    return UUID.fromString(laptop.getId());
+  }
+
+  private static final class Entry {
+    final long key;
+    final Laptop laptop;
+    private UUID id;
+
+    Entry(long key, Laptop laptop) {
+      this.key = key;
+      this.laptop = laptop;
+    }
+
+    // only parsed when two keys tie
+    UUID id() {
+      if (id == null) {
+        id = TopLaptops.id(laptop);
+      }
+      return id;
+    }
+  }
+}
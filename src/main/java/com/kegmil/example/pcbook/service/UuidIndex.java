@@ -0,0 +1,173 @@
+package com.kegmil.example.pcbook.service;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Open-addressing hash map from a UUID, kept as its two longs, to a non-negative int.
+ *
+ * <p>Writers take the write lock. Readers probe optimistically and only fall back to the read lock
+ * when a writer got in the way.
+ */
+class UuidIndex {
+
+  private static final int INITIAL_SLOTS = 1 << 10;
+
+  private final StampedLock lock = new StampedLock();
+  private volatile Table table = new Table(INITIAL_SLOTS);
+  private int size;
+
+  /**
+   * Returns the value mapped to the UUID, or -1 if there is none.
+   */
+  int get(long msb, long lsb) {
+    long stamp = lock.tryOptimisticRead();
+    int value = table.get(msb, lsb);
+    if (lock.validate(stamp)) {
+      return value;
+    }
+
+    stamp = lock.readLock();
+    try {
+      return table.get(msb, lsb);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Maps the UUID to the value produced by {@code value} unless it is already mapped, with a single
+   * probe. {@code value} runs under the write lock and only when the UUID is absent.
+   *
+   * @return the inserted value, or {@code -1 - existing} if the UUID was already mapped
+   */
+  int putIfAbsent(long msb, long lsb, IntSupplier value) {
+    long stamp = lock.writeLock();
+    try {
+      Table table = this.table;
+      int slot = table.probe(msb, lsb);
+      if (table.values[slot] != 0) {
+        return -table.values[slot];
+      }
+
+      int inserted = value.getAsInt();
+      table.set(slot, msb, lsb, inserted);
+      size++;
+      if (size * 4 > table.values.length * 3) {
+        this.table = table.resize(table.values.length << 1);
+      }
+      return inserted;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Batch form of {@link #putIfAbsent} that takes the write lock once. UUID {@code i} is mapped to
+   * {@code value.applyAsInt(i)} unless it is already mapped, including by an earlier UUID of the
+   * same batch, and {@code result[i]} follows the return convention of {@link #putIfAbsent}.
+   */
+  void putAllIfAbsent(long[] msbs, long[] lsbs, IntUnaryOperator value, int[] result) {
+    long stamp = lock.writeLock();
+    try {
+      Table table = this.table;
+      for (int i = 0; i < msbs.length; i++) {
+        int slot = table.probe(msbs[i], lsbs[i]);
+        if (table.values[slot] != 0) {
+          result[i] = -table.values[slot];
+          continue;
+        }
+
+        result[i] = value.applyAsInt(i);
+        table.set(slot, msbs[i], lsbs[i], result[i]);
+        size++;
+        if (size * 4 > table.values.length * 3) {
+          table = table.resize(table.values.length << 1);
+          this.table = table;
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  void put(long msb, long lsb, int value) {
+    long stamp = lock.writeLock();
+    try {
+      Table table = this.table;
+      int slot = table.probe(msb, lsb);
+      if (table.values[slot] == 0) {
+        size++;
+      }
+      table.set(slot, msb, lsb, value);
+
+      if (size * 4 > table.values.length * 3) {
+        this.table = table.resize(table.values.length << 1);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  int size() {
+    long stamp = lock.readLock();
+    try {
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  private static final class Table {
+    // msb and lsb of slot i at 2i and 2i + 1
+    final long[] keys;
+    // value + 1, so that 0 marks an empty slot
+    final int[] values;
+
+    Table(int slots) {
+      keys = new long[slots << 1];
+      values = new int[slots];
+    }
+
+    int get(long msb, long lsb) {
+      int slot = probe(msb, lsb);
+      return values[slot] - 1;
+    }
+
+    int probe(long msb, long lsb) {
+      int mask = values.length - 1;
+      int slot = hash(msb, lsb) & mask;
+      while (values[slot] != 0 && (keys[slot << 1] != msb || keys[(slot << 1) + 1] != lsb)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    void set(int slot, long msb, long lsb, int value) {
+      keys[slot << 1] = msb;
+      keys[(slot << 1) + 1] = lsb;
+      values[slot] = value + 1;
+    }
+
+    Table resize(int slots) {
+      Table other = new Table(slots);
+      for (int slot = 0; slot < values.length; slot++) {
+        if (values[slot] != 0) {
+          long msb = keys[slot << 1];
+          long lsb = keys[(slot << 1) + 1];
+          other.set(other.probe(msb, lsb), msb, lsb, values[slot] - 1);
+        }
+      }
+      return other;
+    }
+
+    private static int hash(long msb, long lsb) {
+      long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      return (int) h;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.kegmil.example.pcbook;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.sample.Generator;
+import com.kegmil.example.pcbook.sample.LaptopDistribution;
+import com.kegmil.example.pcbook.serializer.Serializer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class GeneratorTest {
+
+  private static final LaptopDistribution FIXED = LaptopDistribution.newBuilder()
+      .setUpdatedAt(Instant.parse("2021-01-01T00:00:00Z"))
+      .build();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void sameSeedGeneratesTheSameLaptops() {
+    Generator first = new Generator(42, FIXED);
+    Generator second = new Generator(42, FIXED);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(first.newLaptop(), second.newLaptop());
+    }
+  }
+
+  @Test
+  public void parallelStreamIsDeterministicAndUnique() {
+    List<Laptop> parallel = Generator.laptops(7, 20000, FIXED).collect(Collectors.toList());
+    List<Laptop> sequential = Generator.laptops(7, 20000, FIXED).sequential().collect(Collectors.toList());
+    Assert.assertEquals(sequential, parallel);
+
+    Set<String> ids = new HashSet<>();
+    for (Laptop laptop : parallel) {
+      Assert.assertTrue(ids.add(laptop.getId()));
+    }
+  }
+
+  @Test
+  public void distributionControlsPricesAndBrands() {
+    LaptopDistribution distribution = LaptopDistribution.newBuilder()
+        .setPriceRange(500, 1000)
+        .setPriceSkew(3)
+        .setBrandWeights(Collections.singletonMap("Dell", 1.0))
+        .build();
+
+    List<Laptop> laptops = Generator.laptops(1, 10000, distribution).collect(Collectors.toList());
+    long cheap = 0;
+    for (Laptop laptop : laptops) {
+      Assert.assertEquals("Dell", laptop.getBrand());
+      Assert.assertTrue(laptop.getPriceUsd() >= 500 && laptop.getPriceUsd() <= 1000);
+      if (laptop.getPriceUsd() < 750) {
+        cheap++;
+      }
+    }
+    // with a skew of 3, P(price < 750) = 0.5^(1/3), about 79%
+    Assert.assertTrue(cheap > 7500 && cheap < 8300);
+  }
+
+  @Test
+  public void writeBinaryRecordsMatchesTheStream() throws IOException {
+    String file = folder.getRoot().toPath().resolve("fixture.bin").toString();
+    // more laptops than one write chunk
+    Assert.assertEquals(70000, Generator.writeBinaryRecords(3, 70000, FIXED, file));
+
+    try (Stream<Laptop> read = new Serializer().readBinaryRecords(file)) {
+      Assert.assertEquals(Generator.laptops(3, 70000, FIXED).collect(Collectors.toList()),
+          read.collect(Collectors.toList()));
+    }
+  }
+}
@@ -3,13 +3,22 @@ package com.kegmil.example.pcbook;
 import com.kegmil.example.pcbook.sample.Generator;
 import com.kegmil.example.pcbook.serializer.Serializer;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
 import com.kegmil.example.pcbook.pb.Laptop;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SerializerTest {
 
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void writeAndReadBinaryFile() throws IOException {
     String binaryFile = "laptop.bin";
@@ -21,4 +30,60 @@ public class SerializerTest {
     Laptop laptop2 = serializer.readBinaryFile(binaryFile);
     Assert.assertEquals(laptop1, laptop2);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void writeAndReadBinaryRecords() throws IOException {
+    List<Laptop> laptops = newLaptops(1000);
+    String file = folder.getRoot().toPath().resolve("laptops.bin").toString();
+
+    Serializer serializer = new Serializer();
+    Assert.assertEquals(laptops.size(), serializer.writeBinaryRecords(laptops.stream(), file));
+
+    try (Stream<Laptop> read = serializer.readBinaryRecords(file)) {
+      Assert.assertEquals(laptops, read.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void writeAndReadJSONLines() throws IOException {
+    List<Laptop> laptops = newLaptops(1000);
+    String file = folder.getRoot().toPath().resolve("laptops.jsonl").toString();
+
+    Serializer serializer = new Serializer();
+    Assert.assertEquals(laptops.size(), serializer.writeJSONLinesFile(laptops.iterator(), file));
+
+    try (Stream<Laptop> read = serializer.readJSONLinesFile(file)) {
+      Assert.assertEquals(laptops, read.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void convertBetweenBinaryAndJSONLinesInParallel() throws IOException {
+    // several chunks per worker so that results complete out of order
+    List<Laptop> laptops = newLaptops(10000);
+    String binaryFile = folder.getRoot().toPath().resolve("laptops.bin").toString();
+    String jsonFile = folder.getRoot().toPath().resolve("laptops.jsonl").toString();
+    String copyFile = folder.getRoot().toPath().resolve("copy.bin").toString();
+
+    Serializer serializer = new Serializer();
+    serializer.writeBinaryRecords(laptops.iterator(), binaryFile);
+    Assert.assertEquals(laptops.size(), serializer.convertBinaryToJSONLines(binaryFile, jsonFile, 4));
+    Assert.assertEquals(laptops.size(), serializer.convertJSONLinesToBinary(jsonFile, copyFile, 4));
+
+    try (Stream<Laptop> read = serializer.readJSONLinesFile(jsonFile)) {
+      Assert.assertEquals(laptops, read.collect(Collectors.toList()));
+    }
+    try (Stream<Laptop> read = serializer.readBinaryRecords(copyFile)) {
+      Assert.assertEquals(laptops, read.collect(Collectors.toList()));
+    }
+  }
+
+  private static List<Laptop> newLaptops(int n) {
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      laptops.add(generator.newLaptop());
+    }
+    return laptops;
+  }
+}
@@ -0,0 +1,40 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Memory;
+import org.junit.Test;
+
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertSearchIsExact;
+import static org.junit.Assert.*;
+
+public class BitmapLaptopStoreTest {
+
+  @Test
+  public void searchOnBucketBoundaries() throws Exception {
+    Memory minRam = Memory.newBuilder().setValue(16).setUnit(Memory.Unit.GIGABYTE).build();
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2500)
+        .setMinCpuCores(4)
+        .setMinCpuGhz(2.5)
+        .setMinRam(minRam)
+        .build();
+
+    BitmapLaptopStore store = new BitmapLaptopStore();
+    assertSearchIsExact(store, filter);
+    // four dimensions of 5000 bits each, at least
+    assertTrue(store.metrics().getIndexBytes() >= 4 * 5000 / 8);
+  }
+
+  @Test
+  public void searchInsideBuckets() throws Exception {
+    Memory minRam = Memory.newBuilder().setValue(20).setUnit(Memory.Unit.GIGABYTE).build();
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2111.5)
+        .setMinCpuCores(5)
+        .setMinCpuGhz(2.61)
+        .setMinRam(minRam)
+        .build();
+
+    assertSearchIsExact(new BitmapLaptopStore(), filter);
+  }
+}
@@ -0,0 +1,112 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertSearchIsExact;
+import static org.junit.Assert.*;
+
+public class CachingLaptopStoreTest {
+
+  @Test
+  public void searchIsExact() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2000)
+        .setMinCpuCores(4)
+        .build();
+
+    assertSearchIsExact(new CachingLaptopStore(new InMemoryLaptopStore()), filter);
+  }
+
+  @Test
+  public void equivalentFiltersShareAnEntry() throws Exception {
+    CachingLaptopStore store = new CachingLaptopStore(new InMemoryLaptopStore());
+    Generator generator = new Generator();
+    for (int i = 0; i < 100; i++) {
+      store.save(generator.newLaptop());
+    }
+
+    Memory gigabytes = Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build();
+    Memory megabytes = Memory.newBuilder().setValue(8192).setUnit(Memory.Unit.MEGABYTE).build();
+    List<Laptop> first = search(store, Filter.newBuilder().setMaxPriceUsd(3000).setMinRam(gigabytes).build());
+    List<Laptop> second = search(store, Filter.newBuilder().setMaxPriceUsd(3000).setMinRam(megabytes).build());
+
+    assertEquals(first, second);
+    assertEquals(1, store.getMisses());
+    assertEquals(1, store.getHits());
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void saveOnlyInvalidatesMatchingFilters() throws Exception {
+    CachingLaptopStore store = new CachingLaptopStore(new InMemoryLaptopStore());
+    Filter cheap = Filter.newBuilder().setMaxPriceUsd(1000).build();
+    Filter any = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    search(store, cheap);
+    search(store, any);
+    assertEquals(2, store.size());
+
+    Laptop laptop = new Generator().newLaptop().toBuilder().setPriceUsd(2000).build();
+    store.save(laptop);
+
+    assertEquals(1, store.size());
+    assertTrue(search(store, cheap).isEmpty());
+    assertEquals(1, store.getHits());
+    assertEquals(1, search(store, any).size());
+    assertEquals(3, store.getMisses());
+  }
+
+  @Test
+  public void leastRecentlyUsedFilterIsEvicted() throws Exception {
+    // empty results count as one cached laptop each
+    CachingLaptopStore store = new CachingLaptopStore(new InMemoryLaptopStore(), 2, 2);
+    Filter first = Filter.newBuilder().setMaxPriceUsd(1000).build();
+    Filter second = Filter.newBuilder().setMaxPriceUsd(2000).build();
+    Filter third = Filter.newBuilder().setMaxPriceUsd(3000).build();
+    search(store, first);
+    search(store, second);
+    search(store, first);
+    search(store, third);
+
+    assertEquals(1, store.getEvictions());
+    search(store, first);
+    assertEquals(2, store.getHits());
+    search(store, second);
+    assertEquals(4, store.getMisses());
+  }
+
+  @Test
+  public void cacheIsBoundedByCachedLaptops() throws Exception {
+    CachingLaptopStore store = new CachingLaptopStore(new InMemoryLaptopStore(), 100, 60);
+    Generator generator = new Generator();
+    for (int i = 0; i < 100; i++) {
+      store.save(generator.newLaptop().toBuilder().setPriceUsd(1000 + i).build());
+    }
+
+    // too large to cache, so not even collected
+    assertEquals(100, search(store, Filter.newBuilder().setMaxPriceUsd(2000).build()).size());
+    assertEquals(0, store.size());
+
+    assertEquals(50, search(store, Filter.newBuilder().setMaxPriceUsd(1049).build()).size());
+    assertEquals(40, search(store, Filter.newBuilder().setMaxPriceUsd(1039).build()).size());
+    assertEquals(90, store.getCachedLaptops());
+
+    // the least recently used result makes room for the new one
+    assertEquals(30, search(store, Filter.newBuilder().setMaxPriceUsd(1029).build()).size());
+    assertEquals(2, store.size());
+    assertEquals(70, store.getCachedLaptops());
+    assertEquals(1, store.getEvictions());
+  }
+
+  private static List<Laptop> search(LaptopStore store, Filter filter) {
+    List<Laptop> found = new ArrayList<>();
+    store.search(filter, found::add);
+    return found;
+  }
+}
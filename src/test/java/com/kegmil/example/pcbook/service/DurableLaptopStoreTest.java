@@ -0,0 +1,312 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.AggregateLaptopsRequest;
+import com.kegmil.example.pcbook.pb.AggregateLaptopsResponse;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.RICHER_FILTER;
+import static org.junit.Assert.*;
+
+public class DurableLaptopStoreTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void restartReplaysTheLog() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    // small segments exercise rollover
+    DurableLaptopStore store = open(directory, 4096);
+    List<Laptop> laptops = saveConcurrently(store, 500);
+    store.close();
+
+    DurableLaptopStore reopened = open(directory, 4096);
+    assertAllFound(reopened, laptops);
+    reopened.close();
+  }
+
+  @Test
+  public void restartReplaysTheSnapshotAndTheLogAfterIt() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, 4096);
+    List<Laptop> laptops = saveConcurrently(store, 300);
+    store.snapshot();
+    laptops.addAll(saveConcurrently(store, 200));
+    store.close();
+
+    // the snapshot replaced the segments it covers
+    assertEquals(1, folder.getRoot().list((dir, name) -> name.startsWith("snapshot-")).length);
+
+    DurableLaptopStore reopened = open(directory, 4096);
+    assertAllFound(reopened, laptops);
+    reopened.close();
+  }
+
+  @Test
+  public void snapshotOfAMappedSnapshotKeepsUndecodedLaptops() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, 4096);
+    List<Laptop> laptops = saveConcurrently(store, 300);
+    store.snapshot();
+    store.close();
+
+    // only some laptops are decoded before the next snapshot copies the mapped records
+    DurableLaptopStore reopened = open(directory, 4096);
+    assertEquals(laptops.get(0), reopened.find(laptops.get(0).getId()));
+    laptops.addAll(saveConcurrently(reopened, 50));
+    reopened.snapshot();
+    // the laptops not decoded yet are now read from the new snapshot, after the old one was deleted
+    assertAllFound(reopened, laptops);
+    reopened.close();
+
+    DurableLaptopStore again = open(directory, 4096);
+    assertAllFound(again, laptops);
+    assertEquals(laptops.size(), countAll(again));
+
+    Memory minRam = Memory.newBuilder().setValue(16).setUnit(Memory.Unit.GIGABYTE).build();
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(2500).setMinCpuCores(4).setMinRam(minRam).build();
+    Set<String> expected = new HashSet<>();
+    for (Laptop laptop : laptops) {
+      if (laptop.getPriceUsd() <= 2500 && laptop.getCpu().getNumberCores() >= 4
+          && LaptopColumns.toBit(laptop.getRam()) >= LaptopColumns.toBit(minRam)) {
+        expected.add(laptop.getId());
+      }
+    }
+    Set<String> found = new HashSet<>();
+    again.search(filter, laptop -> found.add(laptop.getId()));
+    assertEquals(expected, found);
+
+    // brands and release years come from the snapshot columns, without decoding the laptops
+    List<AggregateLaptopsRequest.Facet> facets =
+        Arrays.asList(AggregateLaptopsRequest.Facet.BRAND, AggregateLaptopsRequest.Facet.RELEASE_YEAR);
+    LaptopAggregation aggregation = new LaptopAggregation(facets, 500);
+    again.aggregate(filter, aggregation);
+    LaptopAggregation reference = new LaptopAggregation(facets, 500);
+    for (Laptop laptop : laptops) {
+      if (expected.contains(laptop.getId())) {
+        reference.add(laptop);
+      }
+    }
+    AggregateLaptopsResponse actual = aggregation.toResponse(facets);
+    AggregateLaptopsResponse wanted = reference.toResponse(facets);
+    assertEquals(wanted.getCount(), actual.getCount());
+    assertEquals(wanted.getFacetsList(), actual.getFacetsList());
+    // the laptops are summed in a different order
+    assertEquals(wanted.getAvgPriceUsd(), actual.getAvgPriceUsd(), 1e-6);
+    again.close();
+  }
+
+  @Test
+  public void reopenedSnapshotAppliesTheRicherFilterCriteria() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, 1 << 20);
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      Laptop laptop = generator.newLaptop();
+      laptops.add(laptop);
+      store.save(laptop);
+    }
+    store.snapshot();
+    store.close();
+
+    // brands, release years, weights and resolutions come from the mapped snapshot columns
+    DurableLaptopStore reopened = open(directory, 1 << 20);
+    Set<String> expected = new HashSet<>();
+    for (Laptop laptop : laptops) {
+      if (InMemoryLaptopStoreTest.qualifies(laptop, RICHER_FILTER)) {
+        expected.add(laptop.getId());
+      }
+    }
+    assertFalse(expected.isEmpty());
+
+    Set<String> found = new HashSet<>();
+    reopened.search(RICHER_FILTER, laptop -> assertTrue(found.add(laptop.getId())));
+    assertEquals(expected, found);
+
+    Set<String> paged = new HashSet<>();
+    LaptopCursor cursor = reopened.cursor(RICHER_FILTER);
+    while (cursor.next(7, laptop -> assertTrue(paged.add(laptop.getId())))) {
+    }
+    assertEquals(expected, paged);
+    reopened.close();
+  }
+
+  @Test
+  public void tornRecordAtTheEndOfTheLogIsDropped() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, DurableLaptopStore.DEFAULT_SEGMENT_SIZE);
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      Laptop laptop = generator.newLaptop();
+      laptops.add(laptop);
+      store.save(laptop);
+    }
+    store.close();
+
+    File[] segments = folder.getRoot().listFiles((dir, name) -> name.startsWith("wal-"));
+    Arrays.sort(segments);
+    try (RandomAccessFile last = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+      last.setLength(last.length() - 3);
+    }
+
+    DurableLaptopStore reopened = open(directory, DurableLaptopStore.DEFAULT_SEGMENT_SIZE);
+    assertAllFound(reopened, laptops.subList(0, laptops.size() - 1));
+    assertEquals(laptops.size() - 1, countAll(reopened));
+
+    // the log stays appendable after the truncation
+    Laptop laptop = generator.newLaptop();
+    reopened.save(laptop);
+    reopened.close();
+    DurableLaptopStore again = open(directory, DurableLaptopStore.DEFAULT_SEGMENT_SIZE);
+    assertEquals(laptop, again.find(laptop.getId()));
+    again.close();
+  }
+
+  @Test
+  public void tornRecordAtTheEndOfARolledOverSegmentIsDropped() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, 4096);
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      Laptop laptop = generator.newLaptop();
+      laptops.add(laptop);
+      store.save(laptop);
+    }
+    store.close();
+
+    // a crash after the rollover but before the flusher synced the old segment tears its tail
+    File[] segments = folder.getRoot().listFiles((dir, name) -> name.startsWith("wal-"));
+    assertTrue(segments.length > 1);
+    Arrays.sort(segments);
+    try (RandomAccessFile first = new RandomAccessFile(segments[0], "rw")) {
+      first.setLength(first.length() - 3);
+    }
+
+    DurableLaptopStore reopened = open(directory, 4096);
+    int found = 0;
+    for (Laptop laptop : laptops) {
+      if (laptop.equals(reopened.find(laptop.getId()))) {
+        found++;
+      }
+    }
+    assertEquals(laptops.size() - 1, found);
+    assertEquals(laptops.size() - 1, countAll(reopened));
+    reopened.close();
+
+    // the truncation was written back, so the next restart does not need it again
+    DurableLaptopStore again = open(directory, 4096);
+    assertEquals(laptops.size() - 1, countAll(again));
+    again.close();
+  }
+
+  @Test
+  public void snapshotAfterCloseFails() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, 4096);
+    store.save(new Generator().newLaptop());
+    store.close();
+    String[] before = folder.getRoot().list();
+    Arrays.sort(before);
+
+    try {
+      store.snapshot();
+      fail("snapshot after close must fail");
+    } catch (IOException e) {
+      // expected
+    }
+    String[] after = folder.getRoot().list();
+    Arrays.sort(after);
+    assertArrayEquals(before, after);
+  }
+
+  @Test
+  public void saveThatIsNotLoggedLeavesNothingBehind() throws Exception {
+    Path directory = folder.getRoot().toPath();
+    DurableLaptopStore store = open(directory, 4096);
+    Laptop laptop = new Generator().newLaptop();
+    int[] published = new int[1];
+    store.watch(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build(), saved -> published[0]++);
+    store.close();
+
+    try {
+      store.save(laptop);
+      fail("save after close must fail");
+    } catch (IOException e) {
+      // expected
+    }
+    assertNull(store.find(laptop.getId()));
+    assertEquals(0, published[0]);
+
+    // the failed save did not reserve the ID
+    DurableLaptopStore reopened = open(directory, 4096);
+    reopened.save(laptop);
+    assertEquals(laptop, reopened.find(laptop.getId()));
+    reopened.close();
+  }
+
+  private static DurableLaptopStore open(Path directory, long segmentSize) throws Exception {
+    return new DurableLaptopStore(directory, new InMemoryLaptopStore(), segmentSize,
+        Duration.ofMillis(1), Duration.ofHours(1));
+  }
+
+  private static List<Laptop> saveConcurrently(LaptopStore store, int n) throws Exception {
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      laptops.add(generator.newLaptop());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Laptop laptop : laptops) {
+        futures.add(executor.submit(() -> {
+          store.save(laptop);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return laptops;
+  }
+
+  private static void assertAllFound(LaptopStore store, List<Laptop> laptops) {
+    for (Laptop laptop : laptops) {
+      assertEquals(laptop, store.find(laptop.getId()));
+    }
+  }
+
+  private static int countAll(LaptopStore store) {
+    int[] count = new int[1];
+    store.search(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build(),
+        laptop -> count[0]++);
+    return count[0];
+  }
+}
@@ -0,0 +1,387 @@
+package com.kegmil.example.pcbook.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.GpuFilter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.pb.Screen;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest;
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import com.kegmil.example.pcbook.pb.Storage;
+import com.kegmil.example.pcbook.pb.StorageFilter;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class InMemoryLaptopStoreTest {
+
+  static final Filter RICHER_FILTER = Filter.newBuilder()
+      .setMaxPriceUsd(3000)
+      .setMinPriceUsd(1800)
+      .addBrands("Dell")
+      .addBrands("Lenovo")
+      .addBrands("Acer")
+      .setMinReleaseYear(2016)
+      .setMaxReleaseYear(2018)
+      .setMaxWeightKg(2.5)
+      .setMinResolution(Screen.Resolution.newBuilder().setHeight(1440))
+      .setGpu(GpuFilter.newBuilder().addBrands("NVIDIA"))
+      .setStorage(StorageFilter.newBuilder()
+          .addDrivers(Storage.Driver.SSD)
+          .setMinMemory(Memory.newBuilder().setValue(256).setUnit(Memory.Unit.GIGABYTE)))
+      .build();
+
+  @Test
+  public void searchReturnsExactlyTheQualifiedLaptops() throws Exception {
+    Memory minRam = Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build();
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2000)
+        .setMinCpuCores(4)
+        .setMinCpuGhz(2.5)
+        .setMinRam(minRam)
+        .build();
+
+    assertSearchIsExact(new InMemoryLaptopStore(), filter);
+  }
+
+  @Test
+  public void everyStoreAppliesTheRicherFilterCriteria() throws Exception {
+    Filter filter = RICHER_FILTER;
+
+    assertSearchIsExact(new InMemoryLaptopStore(), filter);
+    assertSearchIsExact(new IndexedLaptopStore(), filter);
+    assertSearchIsExact(new BitmapLaptopStore(), filter);
+    assertSearchIsExact(new OffHeapLaptopStore(1 << 16, null), filter);
+    assertSearchIsExact(new CachingLaptopStore(new InMemoryLaptopStore()), filter);
+  }
+
+  @Test
+  public void everyStoreRejectsANaNThreshold() throws Exception {
+    List<LaptopStore> stores = new ArrayList<>();
+    stores.add(new InMemoryLaptopStore());
+    stores.add(new IndexedLaptopStore());
+    stores.add(new BitmapLaptopStore());
+    stores.add(new OffHeapLaptopStore(1 << 16, null));
+    stores.add(new CachingLaptopStore(new InMemoryLaptopStore()));
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(3000).setMinCpuGhz(Double.NaN).build();
+
+    for (LaptopStore store : stores) {
+      store.save(new Generator().newLaptop());
+      try {
+        store.search(filter, laptop -> fail("matched a NaN threshold"));
+        fail(store.getClass().getSimpleName() + " accepted a NaN threshold");
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+        store.watch(filter, laptop -> fail("matched a NaN threshold"));
+        fail(store.getClass().getSimpleName() + " accepted a NaN threshold");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void searchTopPagesThroughTheMatchesInOrder() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2500)
+        .setMinCpuCores(4)
+        .build();
+
+    assertPagesAreOrdered(new InMemoryLaptopStore(), filter,
+        new LaptopOrdering(SearchLaptopRequest.OrderBy.RAM, true));
+  }
+
+  @Test
+  public void watchersReceiveExactlyTheNewMatches() throws Exception {
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    Generator generator = new Generator();
+    Laptop before = generator.newLaptop();
+    store.save(before);
+
+    List<Filter> filters = new ArrayList<>();
+    for (int maxPrice = 1500; maxPrice <= 3500; maxPrice += 250) {
+      filters.add(Filter.newBuilder().setMaxPriceUsd(maxPrice).setMinCpuCores(maxPrice / 500).build());
+    }
+    List<List<Laptop>> received = new ArrayList<>();
+    List<LaptopSubscription> subscriptions = new ArrayList<>();
+    for (Filter filter : filters) {
+      List<Laptop> laptops = new ArrayList<>();
+      received.add(laptops);
+      subscriptions.add(store.watch(filter, laptops::add));
+    }
+
+    List<Laptop> saved = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      saved.add(generator.newLaptop());
+    }
+    store.save(saved.get(0));
+    store.saveAll(saved.subList(0, 250));
+    store.saveAll(saved.subList(250, 500));
+
+    for (int f = 0; f < filters.size(); f++) {
+      List<Laptop> expected = new ArrayList<>();
+      for (Laptop laptop : saved) {
+        if (laptop.getPriceUsd() <= filters.get(f).getMaxPriceUsd()
+            && laptop.getCpu().getNumberCores() >= filters.get(f).getMinCpuCores()) {
+          expected.add(laptop);
+        }
+      }
+      assertEquals(expected, received.get(f));
+    }
+
+    subscriptions.get(filters.size() - 1).cancel();
+    int count = received.get(filters.size() - 1).size();
+    Laptop match = generator.newLaptop();
+    store.save(match.toBuilder()
+        .setPriceUsd(1000)
+        .setCpu(match.getCpu().toBuilder().setNumberCores(16))
+        .build());
+    assertEquals(count, received.get(filters.size() - 1).size());
+  }
+
+  @Test
+  public void findAndSearchShareTheSavedInstance() throws Exception {
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    Laptop laptop = new Generator().newLaptop();
+    store.save(laptop);
+
+    assertSame(laptop, store.find(laptop.getId()));
+
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    List<Laptop> found = new ArrayList<>();
+    store.search(filter, found::add);
+    assertEquals(1, found.size());
+    assertSame(laptop, found.get(0));
+  }
+
+  @Test
+  public void cursorsHandOverTheResponsesEncodedAtSaveTime() throws Exception {
+    InMemoryLaptopStore store = new InMemoryLaptopStore(true);
+    Generator generator = new Generator();
+    for (int i = 0; i < 100; i++) {
+      store.save(generator.newLaptop());
+    }
+
+    Set<String> found = new HashSet<>();
+    store.cursor(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build()).forEachRemaining(
+        new LaptopStream() {
+          @Override
+          public void send(Laptop laptop) {
+            fail("a laptop with an encoded response was sent without it");
+          }
+
+          @Override
+          public void sendEncoded(Laptop laptop, byte[] response) {
+            try {
+              assertEquals(laptop, SearchLaptopResponse.parseFrom(response).getLaptop());
+            } catch (InvalidProtocolBufferException e) {
+              throw new AssertionError(e);
+            }
+            assertTrue(found.add(laptop.getId()));
+          }
+        });
+    assertEquals(100, found.size());
+  }
+
+  @Test
+  public void searchDoesNotAllocatePerHit() throws Exception {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+    int n = 20000;
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    Generator generator = new Generator();
+    for (int i = 0; i < n; i++) {
+      store.save(generator.newLaptop());
+    }
+
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    int[] hits = new int[1];
+    LaptopStream counter = laptop -> hits[0]++;
+    for (int i = 0; i < 20; i++) {
+      store.search(filter, counter);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    hits[0] = 0;
+    long before = threads.getThreadAllocatedBytes(threadId);
+    store.search(filter, counter);
+    long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+    assertEquals(n, hits[0]);
+    // a copied Laptop with its nested messages is several hundred bytes; sharing costs nothing
+    assertTrue("allocated " + allocated + " bytes for " + n + " hits", allocated < n);
+  }
+
+  @Test
+  public void concurrentSavesOfTheSameIDSucceedExactlyOnce() throws Exception {
+    int writers = 32;
+    int n = 2000;
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      laptops.add(generator.newLaptop());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(writers);
+    CountDownLatch start = new CountDownLatch(1);
+    AtomicInteger saved = new AtomicInteger();
+    AtomicInteger duplicates = new AtomicInteger();
+    List<Future<?>> futures = new ArrayList<>();
+    for (int w = 0; w < writers; w++) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (Laptop laptop : laptops) {
+          try {
+            store.save(laptop);
+            saved.incrementAndGet();
+          } catch (AlreadyExistException e) {
+            duplicates.incrementAndGet();
+          }
+        }
+        return null;
+      }));
+    }
+
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    assertEquals(n, saved.get());
+    assertEquals(n * (writers - 1), duplicates.get());
+
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    int[] found = new int[1];
+    store.search(filter, laptop -> found[0]++);
+    assertEquals(n, found[0]);
+  }
+
+  @Test
+  public void watchersApplyTheRicherFilterCriteria() throws Exception {
+    assertWatchIsExact(new InMemoryLaptopStore());
+    assertWatchIsExact(new OffHeapLaptopStore(1 << 16, null));
+  }
+
+  private static void assertWatchIsExact(LaptopStore store) throws Exception {
+    List<Laptop> received = new ArrayList<>();
+    store.watch(RICHER_FILTER, received::add);
+
+    Generator generator = new Generator();
+    List<Laptop> expected = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      Laptop laptop = generator.newLaptop();
+      store.save(laptop);
+      if (qualifies(laptop, RICHER_FILTER)) {
+        expected.add(laptop);
+      }
+    }
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, received);
+  }
+
+  static void assertSearchIsExact(LaptopStore store, Filter filter) throws Exception {
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      Laptop laptop = generator.newLaptop();
+      laptops.add(laptop);
+      store.save(laptop);
+    }
+
+    Set<String> expected = new HashSet<>();
+    for (Laptop laptop : laptops) {
+      if (qualifies(laptop, filter)) {
+        expected.add(laptop.getId());
+      }
+    }
+
+    Set<String> found = new HashSet<>();
+    store.search(filter, laptop -> assertTrue(found.add(laptop.getId())));
+    assertEquals(expected, found);
+
+    Set<String> paged = new HashSet<>();
+    LaptopCursor cursor = store.cursor(filter);
+    boolean more = true;
+    while (more) {
+      more = cursor.next(7, laptop -> assertTrue(paged.add(laptop.getId())));
+    }
+    assertEquals(expected, paged);
+  }
+
+  static boolean qualifies(Laptop laptop, Filter filter) {
+    boolean base = laptop.getPriceUsd() <= filter.getMaxPriceUsd()
+        && laptop.getCpu().getNumberCores() >= filter.getMinCpuCores()
+        && laptop.getCpu().getMinGhz() >= filter.getMinCpuGhz()
+        && LaptopColumns.toBit(laptop.getRam()) >= LaptopColumns.toBit(filter.getMinRam());
+    boolean extra = laptop.getPriceUsd() >= filter.getMinPriceUsd()
+        && (filter.getBrandsCount() == 0 || filter.getBrandsList().contains(laptop.getBrand()))
+        && laptop.getReleaseYear() >= filter.getMinReleaseYear()
+        && (filter.getMaxReleaseYear() == 0 || laptop.getReleaseYear() <= filter.getMaxReleaseYear())
+        && (filter.getMaxWeightKg() == 0 || laptop.getWeightKg() <= filter.getMaxWeightKg())
+        && laptop.getScreen().getResolution().getWidth() >= filter.getMinResolution().getWidth()
+        && laptop.getScreen().getResolution().getHeight() >= filter.getMinResolution().getHeight();
+    if (filter.hasGpu()) {
+      GpuFilter gpu = filter.getGpu();
+      extra &= laptop.getGpusList().stream().anyMatch(g ->
+          (gpu.getBrandsCount() == 0 || gpu.getBrandsList().contains(g.getBrand()))
+              && g.getMinGhz() >= gpu.getMinGhz()
+              && LaptopColumns.toBit(g.getMemory()) >= LaptopColumns.toBit(gpu.getMinMemory()));
+    }
+    if (filter.hasStorage()) {
+      StorageFilter storage = filter.getStorage();
+      extra &= laptop.getStoragesList().stream().anyMatch(d ->
+          (storage.getDriversCount() == 0 || storage.getDriversList().contains(d.getDriver()))
+              && LaptopColumns.toBit(d.getMemory()) >= LaptopColumns.toBit(storage.getMinMemory()));
+    }
+    return base && extra;
+  }
+
+  static void assertPagesAreOrdered(LaptopStore store, Filter filter, LaptopOrdering ordering) throws Exception {
+    Generator generator = new Generator();
+    List<Laptop> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      Laptop laptop = generator.newLaptop();
+      store.save(laptop);
+      if (laptop.getPriceUsd() <= filter.getMaxPriceUsd()
+          && laptop.getCpu().getNumberCores() >= filter.getMinCpuCores()
+          && laptop.getCpu().getMinGhz() >= filter.getMinCpuGhz()
+          && LaptopColumns.toBit(laptop.getRam()) >= LaptopColumns.toBit(filter.getMinRam())) {
+        expected.add(laptop);
+      }
+    }
+    expected.sort((a, b) -> ordering.compare(
+        ordering.key(a), UUID.fromString(a.getId()), ordering.key(b), UUID.fromString(b.getId())));
+
+    List<Laptop> paged = new ArrayList<>();
+    PageToken after = null;
+    while (true) {
+      List<Laptop> page = store.searchTop(filter, ordering, 37, after);
+      paged.addAll(page);
+      if (page.size() < 37) {
+        break;
+      }
+      after = PageToken.decode(PageToken.after(ordering, page.get(36)).encode(), ordering);
+    }
+    assertEquals(expected, paged);
+  }
+}
@@ -0,0 +1,101 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest.OrderBy;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertPagesAreOrdered;
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertSearchIsExact;
+import static org.junit.Assert.*;
+
+public class IndexedLaptopStoreTest {
+
+  @Test
+  public void selectivePriceSearchUsesTheIndex() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(1600)
+        .setMinCpuCores(2)
+        .build();
+
+    IndexedLaptopStore store = new IndexedLaptopStore();
+    assertSearchIsExact(store, filter);
+    // a search and a paged cursor over 5000 laptops, each walking about 5% of them
+    assertTrue(store.metrics().getRowsScanned() < 5000);
+    // four indexes of a key and an ordinal per laptop
+    assertEquals(4 * 5000 * (8 + 4), store.metrics().getIndexBytes());
+  }
+
+  @Test
+  public void selectiveRamSearchUsesTheIndex() throws Exception {
+    Memory minRam = Memory.newBuilder().setValue(60).setUnit(Memory.Unit.GIGABYTE).build();
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(3500)
+        .setMinRam(minRam)
+        .build();
+
+    IndexedLaptopStore store = new IndexedLaptopStore();
+    assertSearchIsExact(store, filter);
+    assertTrue(store.metrics().getRowsScanned() < 5000);
+  }
+
+  @Test
+  public void broadSearchFallsBackToAScan() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(4000)
+        .build();
+
+    IndexedLaptopStore store = new IndexedLaptopStore();
+    assertSearchIsExact(store, filter);
+    assertEquals(2 * 5000, store.metrics().getRowsScanned());
+  }
+
+  @Test
+  public void recentSavesAreFoundInThePendingRun() throws Exception {
+    IndexedLaptopStore store = new IndexedLaptopStore();
+    Generator generator = new Generator();
+    for (int i = 0; i < 2048; i++) {
+      store.save(generator.newLaptop().toBuilder().setPriceUsd(2000 + i).build());
+    }
+    // two full merges into the base run, then fewer than a merge's worth left pending
+    for (int i = 0; i < 100; i++) {
+      store.save(generator.newLaptop().toBuilder().setPriceUsd(1000 + i).build());
+    }
+
+    List<Laptop> found = new ArrayList<>();
+    store.search(Filter.newBuilder().setMaxPriceUsd(1049).build(), found::add);
+    assertEquals(50, found.size());
+    assertEquals(50, store.metrics().getRowsScanned());
+
+    List<Laptop> page = store.searchTop(Filter.newBuilder().setMaxPriceUsd(2001).build(),
+        new LaptopOrdering(OrderBy.PRICE, true), 3, null);
+    assertEquals(2001, page.get(0).getPriceUsd(), 0);
+    assertEquals(2000, page.get(1).getPriceUsd(), 0);
+    assertEquals(1099, page.get(2).getPriceUsd(), 0);
+  }
+
+  @Test
+  public void priceOrderedPagesWalkTheIndex() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2000)
+        .setMinCpuCores(4)
+        .build();
+
+    assertPagesAreOrdered(new IndexedLaptopStore(), filter, new LaptopOrdering(OrderBy.PRICE, false));
+  }
+
+  @Test
+  public void descendingGhzOrderedPagesWalkTheIndex() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(3000)
+        .setMinCpuGhz(2.5)
+        .build();
+
+    assertPagesAreOrdered(new IndexedLaptopStore(), filter, new LaptopOrdering(OrderBy.CPU_GHZ, true));
+  }
+}
@@ -0,0 +1,100 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LaptopLoadGeneratorTest {
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private LaptopServer server;
+  private List<ManagedChannel> channels;
+
+  @Before
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    Generator generator = new Generator();
+    for (int i = 0; i < 1000; i++) {
+      store.save(generator.newLaptop());
+    }
+    server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, store);
+    server.start();
+
+    channels = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      channels.add(grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build()));
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void closedLoopRecordsEveryCall() throws Exception {
+    LaptopLoadGenerator load = new LaptopLoadGenerator(channels, 0.5);
+    LaptopLoadGenerator.Report report = load.runClosedLoop(8, Duration.ofMillis(500));
+
+    assertTrue(report.createLatency().getTotalCount() > 0);
+    assertTrue(report.searchLatency().getTotalCount() > 0);
+    assertEquals(0, report.createErrors());
+    assertEquals(0, report.searchErrors());
+  }
+
+  @Test
+  public void openLoopStartsCallsAtTheRequestedRate() throws Exception {
+    LaptopLoadGenerator load = new LaptopLoadGenerator(channels, 0);
+    LaptopLoadGenerator.Report report = load.runOpenLoop(200, 16, Duration.ofSeconds(1));
+
+    assertEquals(200, report.createLatency().getTotalCount() + report.createErrors());
+    assertEquals(0, report.searchLatency().getTotalCount());
+  }
+
+  @Test
+  public void failedCallsKeepTheirLatency() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    InMemoryLaptopStore failing = new InMemoryLaptopStore() {
+      @Override
+      public void save(UUID id, Laptop laptop) throws Exception {
+        Thread.sleep(20);
+        throw new IllegalStateException("disk full");
+      }
+    };
+    LaptopServer failingServer = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, failing);
+    failingServer.start();
+    try {
+      ManagedChannel channel = grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build());
+      LaptopLoadGenerator load = new LaptopLoadGenerator(Collections.singletonList(channel), 0);
+      LaptopLoadGenerator.Report report = load.runOpenLoop(100, 4, Duration.ofMillis(500));
+
+      // the stalled failures are in the tail of their own histogram, not dropped
+      assertEquals(0, report.createLatency().getTotalCount());
+      assertEquals(50, report.createErrors());
+      assertEquals(50, report.createErrorLatency().getTotalCount());
+      assertTrue(report.createErrorLatency().getMinValue() >= TimeUnit.MILLISECONDS.toNanos(19));
+      assertTrue(report.toString().contains("errors"));
+    } finally {
+      failingServer.stop();
+    }
+  }
+}
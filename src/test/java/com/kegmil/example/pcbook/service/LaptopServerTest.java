@@ -1,20 +1,44 @@
 package com.kegmil.example.pcbook.service;
 
+import com.kegmil.example.pcbook.pb.AggregateLaptopsRequest;
+import com.kegmil.example.pcbook.pb.AggregateLaptopsResponse;
 import com.kegmil.example.pcbook.pb.CreateLaptopRequest;
 import com.kegmil.example.pcbook.pb.CreateLaptopResponse;
+import com.kegmil.example.pcbook.pb.CreateLaptopsResponse;
+import com.kegmil.example.pcbook.pb.Filter;
 import com.kegmil.example.pcbook.pb.Laptop;
 import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest;
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import com.kegmil.example.pcbook.pb.WatchLaptopsRequest;
+import com.kegmil.example.pcbook.pb.WatchLaptopsResponse;
 import com.kegmil.example.pcbook.sample.Generator;
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Context;
 import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.internal.testing.StreamRecorder;
+import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcCleanupRule;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 public class LaptopServerTest {
@@ -31,7 +55,7 @@ public class LaptopServerTest {
     String serverName = InProcessServerBuilder.generateName();
     InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(serverName).directExecutor();
 
-    store = new InMemoryLaptopStore();
+    store = new InMemoryLaptopStore(true);
     server = new LaptopServer(serverBuilder, 0, store);
     server.start();
 
@@ -93,4 +117,497 @@ public class LaptopServerTest {
     LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
     CreateLaptopResponse response = stub.createLaptop(request);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void searchLaptopStreamsPreEncodedResponses() throws Exception {
+    Generator generator = new Generator();
+    Map<String, Laptop> saved = new HashMap<>();
+    for (int i = 0; i < 20; i++) {
+      Laptop laptop = generator.newLaptop();
+      store.save(laptop);
+      saved.put(laptop.getId(), laptop);
+    }
+
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+    SearchLaptopRequest request = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+    Iterator<SearchLaptopResponse> responses = stub.searchLaptop(request);
+
+    int count = 0;
+    while (responses.hasNext()) {
+      Laptop laptop = responses.next().getLaptop();
+      assertEquals(saved.get(laptop.getId()), laptop);
+      count++;
+    }
+    assertEquals(saved.size(), count);
+  }
+
+  @Test
+  public void searchLaptopStopsPullingWhileTheClientIsNotReady() throws Exception {
+    AtomicInteger pulled = new AtomicInteger();
+    AtomicInteger cancelled = new AtomicInteger();
+    ManagedChannel channel = startCounting(pulled, cancelled, 10_000);
+    List<SearchLaptopResponse> received = new ArrayList<>();
+    ClientCall<SearchLaptopRequest, SearchLaptopResponse> call = search(channel, received, 0);
+
+    call.request(1);
+    // one cursor batch fills the window, and nothing is pulled until the client asks for more
+    assertEquals(LaptopService.SEARCH_BATCH_SIZE, pulled.get());
+    assertEquals(1, received.size());
+
+    call.cancel("client gave up", null);
+    call.request(100);
+    assertEquals(LaptopService.SEARCH_BATCH_SIZE, pulled.get());
+    // the cursor was told to stop, so a store scanning ahead stops too
+    assertTrue(cancelled.get() > 0);
+  }
+
+  @Test
+  public void searchLaptopStopsPullingWhenTheClientCancels() throws Exception {
+    AtomicInteger pulled = new AtomicInteger();
+    AtomicInteger cancelled = new AtomicInteger();
+    ManagedChannel channel = startCounting(pulled, cancelled, 10_000);
+    List<SearchLaptopResponse> received = new ArrayList<>();
+    ClientCall<SearchLaptopRequest, SearchLaptopResponse> call = search(channel, received, 100);
+
+    call.request(1);
+    assertEquals(100, received.size());
+    assertTrue(pulled.get() >= 100);
+    assertTrue(pulled.get() <= 100 + 2 * LaptopService.SEARCH_BATCH_SIZE);
+    assertTrue(cancelled.get() > 0);
+  }
+
+  @Test
+  public void searchLaptopPagesFollowTheOrderAndTheirTokens() throws Exception {
+    Generator generator = new Generator();
+    List<Laptop> expected = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      Laptop laptop = generator.newLaptop();
+      store.save(laptop);
+      expected.add(laptop);
+    }
+    LaptopOrdering ordering = new LaptopOrdering(SearchLaptopRequest.OrderBy.PRICE, true);
+    expected.sort((a, b) -> ordering.compare(
+        ordering.key(a), UUID.fromString(a.getId()), ordering.key(b), UUID.fromString(b.getId())));
+
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+    List<Laptop> paged = new ArrayList<>();
+    String token = "";
+    do {
+      Iterator<SearchLaptopResponse> page = stub.searchLaptop(SearchLaptopRequest.newBuilder()
+          .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE))
+          .setLimit(37)
+          .setOrderBy(SearchLaptopRequest.OrderBy.PRICE)
+          .setDescending(true)
+          .setPageToken(token)
+          .build());
+      token = "";
+      int count = 0;
+      while (page.hasNext()) {
+        SearchLaptopResponse response = page.next();
+        assertTrue("only the last laptop of a page carries the token", token.isEmpty());
+        paged.add(response.getLaptop());
+        token = response.getNextPageToken();
+        count++;
+      }
+      assertTrue(count <= 37);
+    } while (!token.isEmpty());
+    assertEquals(expected, paged);
+  }
+
+  @Test
+  public void limitsOfAtLeastTwoToTheThirtyFirstAreClampedToAPage() throws Exception {
+    Generator generator = new Generator();
+    for (int i = 0; i <= LaptopService.MAX_PAGE_SIZE; i++) {
+      store.save(generator.newLaptop());
+    }
+
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+    // a uint32 limit of 2^31 is negative as an int, but must still ask for a page, not the stream
+    List<SearchLaptopResponse> unordered = new ArrayList<>();
+    stub.searchLaptop(SearchLaptopRequest.newBuilder()
+        .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE))
+        .setLimit(Integer.MIN_VALUE)
+        .build()).forEachRemaining(unordered::add);
+    assertEquals(LaptopService.MAX_PAGE_SIZE, unordered.size());
+    assertFalse(unordered.get(unordered.size() - 1).getNextPageToken().isEmpty());
+
+    // and 2^32 - 1 must not reach the store as a negative page size
+    List<SearchLaptopResponse> ordered = new ArrayList<>();
+    stub.searchLaptop(SearchLaptopRequest.newBuilder()
+        .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE))
+        .setLimit(-1)
+        .setOrderBy(SearchLaptopRequest.OrderBy.PRICE)
+        .build()).forEachRemaining(ordered::add);
+    assertEquals(LaptopService.MAX_PAGE_SIZE, ordered.size());
+    for (int i = 1; i < ordered.size(); i++) {
+      assertTrue(ordered.get(i - 1).getLaptop().getPriceUsd() <= ordered.get(i).getLaptop().getPriceUsd());
+    }
+  }
+
+  @Test
+  public void nanThresholdsAreInvalidArguments() {
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+    try {
+      stub.searchLaptop(SearchLaptopRequest.newBuilder()
+          .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.NaN))
+          .build()).hasNext();
+      fail("expected INVALID_ARGUMENT");
+    } catch (StatusRuntimeException e) {
+      assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+    }
+    try {
+      stub.aggregateLaptops(AggregateLaptopsRequest.newBuilder()
+          .setFilter(Filter.newBuilder().setMaxPriceUsd(3000).setMinCpuGhz(Double.NaN))
+          .build());
+      fail("expected INVALID_ARGUMENT");
+    } catch (StatusRuntimeException e) {
+      assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+    }
+  }
+
+  @Test
+  public void createLaptopsReportsAStatusPerLaptop() throws Exception {
+    Generator generator = new Generator();
+    Laptop existing = generator.newLaptop();
+    store.save(existing);
+
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      laptops.add(generator.newLaptop());
+    }
+    laptops.add(existing);
+    laptops.add(generator.newLaptop().toBuilder().setId("Invalid").build());
+
+    LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+    StreamRecorder<CreateLaptopsResponse> recorder = StreamRecorder.create();
+    StreamObserver<CreateLaptopRequest> requests = stub.createLaptops(recorder);
+    for (Laptop laptop : laptops) {
+      requests.onNext(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+    }
+    requests.onCompleted();
+
+    assertTrue(recorder.awaitCompletion(5, TimeUnit.SECONDS));
+    CreateLaptopsResponse response = recorder.firstValue().get();
+    assertEquals(2500, response.getCreatedCount());
+    assertEquals(laptops.size(), response.getResultsCount());
+    assertEquals(Status.Code.ALREADY_EXISTS.value(), response.getResults(2500).getCode());
+    assertEquals(Status.Code.INVALID_ARGUMENT.value(), response.getResults(2501).getCode());
+
+    for (int i = 0; i < 2500; i++) {
+      assertEquals(0, response.getResults(i).getCode());
+      assertEquals(laptops.get(i), store.find(response.getResults(i).getId()));
+    }
+  }
+
+  @Test
+  public void metricsCountCallsPerMethodAndStatus() throws Exception {
+    Generator generator = new Generator();
+    Laptop laptop = generator.newLaptop();
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+    CreateLaptopRequest request = CreateLaptopRequest.newBuilder().setLaptop(laptop).build();
+    stub.createLaptop(request);
+    try {
+      stub.createLaptop(request);
+      fail("expected ALREADY_EXISTS");
+    } catch (StatusRuntimeException e) {
+      assertEquals(Status.Code.ALREADY_EXISTS, e.getStatus().getCode());
+    }
+
+    Iterator<SearchLaptopResponse> responses = stub.searchLaptop(
+        SearchLaptopRequest.newBuilder().setFilter(Filter.newBuilder().setMaxPriceUsd(10000)).build());
+    while (responses.hasNext()) {
+      responses.next();
+    }
+
+    MetricsInterceptor metrics = server.metrics();
+    assertEquals(Long.valueOf(2), metrics.getCalls().get("createLaptop"));
+    assertEquals(Long.valueOf(1), metrics.getCalls().get("searchLaptop"));
+    assertEquals(Long.valueOf(1), metrics.getStatusCodes().get("createLaptop OK"));
+    assertEquals(Long.valueOf(1), metrics.getStatusCodes().get("createLaptop ALREADY_EXISTS"));
+    assertEquals(Long.valueOf(0), metrics.getInFlight().get("searchLaptop"));
+    assertTrue(metrics.getLatencyMillis().containsKey("searchLaptop p99"));
+
+    LaptopStoreMetrics storeMetrics = ((InMemoryLaptopStore) store).metrics();
+    assertEquals(1, storeMetrics.getSaves());
+    assertEquals(1, storeMetrics.getDuplicates());
+    assertEquals(1, storeMetrics.getSize());
+    assertEquals(0, storeMetrics.getIndexBytes());
+    assertEquals(1, storeMetrics.getRowsScanned());
+    assertEquals(storeMetrics.getHits(), storeMetrics.getRowsScanned());
+  }
+
+  @Test
+  public void watchLaptopsStreamsNewMatchesUntilCancelled() throws Exception {
+    Generator generator = new Generator();
+    Filter filter = Filter.newBuilder().setMaxPriceUsd(2500).build();
+    StreamRecorder<WatchLaptopsResponse> recorder = StreamRecorder.create();
+    Context.CancellableContext context = Context.current().withCancellation();
+    context.run(() -> LaptopServiceGrpc.newStub(channel)
+        .watchLaptops(WatchLaptopsRequest.newBuilder().setFilter(filter).build(), recorder));
+
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+    List<Laptop> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Laptop laptop = generator.newLaptop();
+      stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+      if (laptop.getPriceUsd() <= 2500) {
+        expected.add(laptop);
+      }
+    }
+
+    context.cancel(null);
+    assertTrue(recorder.awaitCompletion(5, TimeUnit.SECONDS));
+    List<Laptop> received = new ArrayList<>();
+    for (WatchLaptopsResponse response : recorder.getValues()) {
+      assertEquals(0, response.getDroppedCount());
+      received.add(response.getLaptop());
+    }
+    assertEquals(expected, received);
+    assertEquals(Status.Code.CANCELLED, Status.fromThrowable(recorder.getError()).getCode());
+  }
+
+  @Test
+  public void watchLaptopsDropsTheOldestMatchesOfASlowSubscriber() throws Exception {
+    SlowSubscriber subscriber = new SlowSubscriber(3, WatchLaptopsRequest.Overflow.DROP_OLDEST);
+    List<Laptop> saved = saveMatches(10);
+    subscriber.read();
+
+    assertEquals(saved.subList(7, 10), subscriber.laptops());
+    assertEquals(7, subscriber.responses.get(0).getDroppedCount());
+    assertEquals(0, subscriber.responses.get(1).getDroppedCount());
+    assertNull(subscriber.status);
+    subscriber.call.cancel("done", null);
+  }
+
+  @Test
+  public void watchLaptopsDropsTheNewestMatchesOfASlowSubscriber() throws Exception {
+    SlowSubscriber subscriber = new SlowSubscriber(3, WatchLaptopsRequest.Overflow.DROP_NEWEST);
+    List<Laptop> saved = saveMatches(10);
+    subscriber.read();
+
+    assertEquals(saved.subList(0, 3), subscriber.laptops());
+    assertEquals(7, subscriber.responses.get(0).getDroppedCount());
+    assertNull(subscriber.status);
+
+    // nothing was dropped since the last response
+    Laptop next = saveMatches(1).get(0);
+    assertEquals(next, subscriber.responses.get(3).getLaptop());
+    assertEquals(0, subscriber.responses.get(3).getDroppedCount());
+    subscriber.call.cancel("done", null);
+  }
+
+  @Test
+  public void watchLaptopsDisconnectsASlowSubscriber() throws Exception {
+    SlowSubscriber subscriber = new SlowSubscriber(3, WatchLaptopsRequest.Overflow.DISCONNECT);
+    saveMatches(3);
+    assertNull(subscriber.status);
+    saveMatches(1);
+    subscriber.read();
+
+    assertTrue(subscriber.responses.isEmpty());
+    assertEquals(Status.Code.RESOURCE_EXHAUSTED, subscriber.status.getCode());
+  }
+
+  @Test
+  public void watchLaptopsTreatsBufferSizeAsUnsigned() throws Exception {
+    // 2^32 - 1, which is clamped to the largest buffer rather than read as -1
+    SlowSubscriber subscriber = new SlowSubscriber(-1, WatchLaptopsRequest.Overflow.DROP_NEWEST);
+    Laptop laptop = new Generator().newLaptop().toBuilder().setPriceUsd(1000).build();
+    for (int i = 0; i < 65536 + 5; i++) {
+      store.save(laptop.toBuilder().setId(UUID.randomUUID().toString()).build());
+    }
+    subscriber.read();
+
+    assertEquals(65536, subscriber.responses.size());
+    assertEquals(5, subscriber.responses.get(0).getDroppedCount());
+    subscriber.call.cancel("done", null);
+  }
+
+  @Test
+  public void aggregateLaptopsCountsTheMatchesByFacet() throws Exception {
+    Generator generator = new Generator();
+    List<Laptop> matches = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Laptop laptop = generator.newLaptop();
+      store.save(laptop);
+      if (laptop.getPriceUsd() <= 2500) {
+        matches.add(laptop);
+      }
+    }
+
+    AggregateLaptopsResponse response = LaptopServiceGrpc.newBlockingStub(channel).aggregateLaptops(
+        AggregateLaptopsRequest.newBuilder()
+            .setFilter(Filter.newBuilder().setMaxPriceUsd(2500))
+            .addFacets(AggregateLaptopsRequest.Facet.BRAND)
+            .addFacets(AggregateLaptopsRequest.Facet.PRICE_BAND)
+            .setPriceBandUsd(250)
+            .build());
+
+    assertEquals(matches.size(), response.getCount());
+    assertEquals(matches.stream().mapToDouble(Laptop::getPriceUsd).min().getAsDouble(),
+        response.getMinPriceUsd(), 0);
+    assertEquals(matches.stream().mapToDouble(Laptop::getPriceUsd).max().getAsDouble(),
+        response.getMaxPriceUsd(), 0);
+    assertEquals(matches.stream().mapToDouble(Laptop::getPriceUsd).average().getAsDouble(),
+        response.getAvgPriceUsd(), 1e-6);
+
+    Map<String, Long> brands = new HashMap<>();
+    Map<Double, Long> bands = new HashMap<>();
+    for (Laptop laptop : matches) {
+      brands.merge(laptop.getBrand(), 1L, Long::sum);
+      bands.merge(Math.floor(laptop.getPriceUsd() / 250) * 250, 1L, Long::sum);
+    }
+    assertEquals(AggregateLaptopsRequest.Facet.BRAND, response.getFacets(0).getFacet());
+    for (AggregateLaptopsResponse.Bucket bucket : response.getFacets(0).getBucketsList()) {
+      assertEquals(brands.remove(bucket.getBrand()), Long.valueOf(bucket.getCount()));
+    }
+    assertTrue(brands.isEmpty());
+    for (AggregateLaptopsResponse.Bucket bucket : response.getFacets(1).getBucketsList()) {
+      assertEquals(bands.remove(bucket.getMinPriceUsd()), Long.valueOf(bucket.getCount()));
+    }
+    assertTrue(bands.isEmpty());
+  }
+
+  @Test
+  public void priceBandsAreNotCappedByTheMaxPrice() throws Exception {
+    saveMatches(3);
+
+    // a large max_price_usd is how clients ask for no cap, and must not be rejected for small bands
+    AggregateLaptopsResponse response = LaptopServiceGrpc.newBlockingStub(channel).aggregateLaptops(
+        AggregateLaptopsRequest.newBuilder()
+            .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE))
+            .addFacets(AggregateLaptopsRequest.Facet.PRICE_BAND)
+            .setPriceBandUsd(1)
+            .build());
+    assertEquals(3, response.getCount());
+    assertEquals(1, response.getFacets(0).getBucketsCount());
+    assertEquals(1000, response.getFacets(0).getBuckets(0).getMinPriceUsd(), 0);
+    assertEquals(3, response.getFacets(0).getBuckets(0).getCount());
+  }
+
+  /**
+   * Serves a store of {@code size} laptops that counts every laptop pulled from its cursors, and
+   * every cursor cancelled.
+   */
+  private ManagedChannel startCounting(AtomicInteger pulled, AtomicInteger cancelled, int size)
+      throws Exception {
+    InMemoryLaptopStore counting = new InMemoryLaptopStore() {
+      @Override
+      public LaptopCursor cursor(Filter filter) {
+        LaptopCursor cursor = super.cursor(filter);
+        return new LaptopCursor() {
+          @Override
+          public boolean next(int max, LaptopStream stream) {
+            return cursor.next(max, laptop -> {
+              pulled.incrementAndGet();
+              stream.send(laptop);
+            });
+          }
+
+          @Override
+          public void cancel() {
+            cancelled.incrementAndGet();
+            cursor.cancel();
+          }
+        };
+      }
+    };
+    Generator generator = new Generator();
+    for (int i = 0; i < size; i++) {
+      counting.save(generator.newLaptop());
+    }
+
+    String serverName = InProcessServerBuilder.generateName();
+    grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+        .directExecutor()
+        .addService(new LaptopService(counting))
+        .build()
+        .start());
+    return grpcCleanup.register(InProcessChannelBuilder.forName(serverName).directExecutor().build());
+  }
+
+  /**
+   * Starts a search for every laptop without requesting any response. Each response received asks
+   * for one more, until {@code cancelAfter} have arrived; 0 never asks for more.
+   */
+  private static ClientCall<SearchLaptopRequest, SearchLaptopResponse> search(
+      ManagedChannel channel, List<SearchLaptopResponse> received, int cancelAfter) {
+    ClientCall<SearchLaptopRequest, SearchLaptopResponse> call =
+        channel.newCall(LaptopServiceGrpc.getSearchLaptopMethod(), CallOptions.DEFAULT);
+    call.start(new ClientCall.Listener<SearchLaptopResponse>() {
+      @Override
+      public void onMessage(SearchLaptopResponse message) {
+        received.add(message);
+        if (cancelAfter == 0) {
+          return;
+        }
+        if (received.size() == cancelAfter) {
+          call.cancel("client gave up", null);
+        } else {
+          call.request(1);
+        }
+      }
+    }, new Metadata());
+    call.sendMessage(SearchLaptopRequest.newBuilder()
+        .setFilter(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE))
+        .build());
+    call.halfClose();
+    return call;
+  }
+
+  private List<Laptop> saveMatches(int count) throws Exception {
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Laptop laptop = generator.newLaptop().toBuilder().setPriceUsd(1000).build();
+      store.save(laptop);
+      laptops.add(laptop);
+    }
+    return laptops;
+  }
+
+  /**
+   * Watches laptops priced up to 2000 without requesting any response, so that the server sees a
+   * subscriber that is not ready until {@link #read()} is called.
+   */
+  private final class SlowSubscriber {
+    final ClientCall<WatchLaptopsRequest, WatchLaptopsResponse> call =
+        channel.newCall(LaptopServiceGrpc.getWatchLaptopsMethod(), CallOptions.DEFAULT);
+    final List<WatchLaptopsResponse> responses = new ArrayList<>();
+    Status status;
+
+    SlowSubscriber(int bufferSize, WatchLaptopsRequest.Overflow overflow) {
+      call.start(new ClientCall.Listener<WatchLaptopsResponse>() {
+        @Override
+        public void onMessage(WatchLaptopsResponse message) {
+          responses.add(message);
+        }
+
+        @Override
+        public void onClose(Status closed, Metadata trailers) {
+          status = closed;
+        }
+      }, new Metadata());
+      call.sendMessage(WatchLaptopsRequest.newBuilder()
+          .setFilter(Filter.newBuilder().setMaxPriceUsd(2000))
+          .setBufferSize(bufferSize)
+          .setOverflow(overflow)
+          .build());
+      call.halfClose();
+    }
+
+    void read() {
+      call.request(Integer.MAX_VALUE);
+    }
+
+    List<Laptop> laptops() {
+      List<Laptop> laptops = new ArrayList<>();
+      for (WatchLaptopsResponse response : responses) {
+        laptops.add(response.getLaptop());
+      }
+      return laptops;
+    }
+  }
+}
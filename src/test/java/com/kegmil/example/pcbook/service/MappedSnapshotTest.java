@@ -0,0 +1,75 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class MappedSnapshotTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void recordsAreSplitAcrossRegions() throws Exception {
+    List<Laptop> laptops = new ArrayList<>();
+    Path file = write(1000, laptops);
+
+    // a few laptops per region, so most region boundaries fall inside a record
+    MappedSnapshot snapshot = MappedSnapshot.map(file, 1024, true);
+    assertEquals(laptops.size(), snapshot.size());
+    for (int i = 0; i < laptops.size(); i++) {
+      Laptop laptop = laptops.get(i);
+      assertEquals(laptop, snapshot.decode(i));
+      UUID id = UUID.fromString(laptop.getId());
+      assertEquals(id.getMostSignificantBits(), snapshot.msbs[i]);
+      assertEquals(id.getLeastSignificantBits(), snapshot.lsbs[i]);
+      assertEquals(laptop.getPriceUsd(), snapshot.prices[i], 0);
+      assertEquals(laptop.getScreen().getResolution().getWidth(), snapshot.screenWidths[i]);
+      assertEquals(laptop.getWeightKg(), snapshot.weightKg[i], 0);
+    }
+
+    MappedSnapshot records = MappedSnapshot.map(file, 1024, false);
+    assertNull(records.prices);
+    assertEquals(laptops.get(laptops.size() - 1), records.decode(laptops.size() - 1));
+  }
+
+  @Test(expected = IOException.class)
+  public void recordLargerThanARegionIsRejected() throws Exception {
+    MappedSnapshot.map(write(10, new ArrayList<>()), 64, true);
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedRecordIsRejected() throws Exception {
+    Path file = write(10, new ArrayList<>());
+    try (RandomAccessFile truncated = new RandomAccessFile(file.toFile(), "rw")) {
+      truncated.setLength(truncated.length() - 3);
+    }
+    MappedSnapshot.map(file, 1024, true);
+  }
+
+  private Path write(int n, List<Laptop> laptops) throws IOException {
+    Generator generator = new Generator();
+    Path file = folder.newFile().toPath();
+    try (OutputStream out = Files.newOutputStream(file)) {
+      for (int i = 0; i < n; i++) {
+        Laptop laptop = generator.newLaptop();
+        laptops.add(laptop);
+        laptop.writeDelimitedTo(out);
+      }
+    }
+    return file;
+  }
+}
@@ -0,0 +1,151 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest.OrderBy;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertPagesAreOrdered;
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertSearchIsExact;
+import static org.junit.Assert.*;
+
+public class OffHeapLaptopStoreTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void findDecodesTheSavedLaptop() throws Exception {
+    // small slabs and many laptops exercise slab rollover and index resizing
+    OffHeapLaptopStore store = new OffHeapLaptopStore(4096, null);
+    Generator generator = new Generator();
+    List<Laptop> laptops = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      Laptop laptop = generator.newLaptop();
+      laptops.add(laptop);
+      store.save(laptop);
+    }
+
+    for (Laptop laptop : laptops) {
+      assertEquals(laptop, store.find(laptop.getId()));
+    }
+    assertNull(store.find(generator.newLaptop().getId()));
+    assertNull(store.find("Invalid"));
+  }
+
+  @Test
+  public void priceOrderedPagesReadKeysFromTheHeaders() throws Exception {
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2500)
+        .setMinCpuCores(4)
+        .build();
+
+    assertPagesAreOrdered(new OffHeapLaptopStore(1 << 16, null), filter, new LaptopOrdering(OrderBy.PRICE, true));
+  }
+
+  @Test(expected = AlreadyExistException.class)
+  public void saveRejectsAnExistingID() throws Exception {
+    OffHeapLaptopStore store = new OffHeapLaptopStore();
+    Laptop laptop = new Generator().newLaptop();
+    store.save(laptop);
+    store.save(laptop);
+  }
+
+  @Test
+  public void searchOverMappedSlabs() throws Exception {
+    Memory minRam = Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE).build();
+    Filter filter = Filter.newBuilder()
+        .setMaxPriceUsd(2000)
+        .setMinCpuCores(4)
+        .setMinCpuGhz(2.5)
+        .setMinRam(minRam)
+        .build();
+
+    assertSearchIsExact(new OffHeapLaptopStore(1 << 16, folder.getRoot().toPath()), filter);
+  }
+
+  @Test
+  public void closeReleasesTheSlabs() throws Exception {
+    OffHeapLaptopStore store = new OffHeapLaptopStore(4096, folder.getRoot().toPath());
+    Generator generator = new Generator();
+    Laptop laptop = generator.newLaptop();
+    for (int i = 0; i < 100; i++) {
+      store.save(generator.newLaptop());
+    }
+    store.save(laptop);
+    LaptopCursor cursor = store.cursor(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build());
+    assertTrue(folder.getRoot().list().length > 1);
+
+    store.close();
+    store.close();
+    assertEquals(0, folder.getRoot().list().length);
+    try {
+      store.find(laptop.getId());
+      fail("expected the closed store to refuse reads");
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      cursor.next(10, found -> fail("read a laptop from a closed store"));
+      fail("expected the closed store to refuse reads");
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      store.save(generator.newLaptop());
+      fail("expected the closed store to refuse saves");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test
+  public void resizeFreesTheOldTable() throws Exception {
+    BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+        .filter(pool -> pool.getName().equals("direct"))
+        .findFirst()
+        .get();
+    long before = direct.getMemoryUsed();
+
+    // mapped slabs are not direct buffers, so only the table counts here
+    OffHeapLaptopStore store = new OffHeapLaptopStore(1 << 20, folder.getRoot().toPath());
+    Generator generator = new Generator();
+    for (int i = 0; i < 20_000; i++) {
+      store.save(generator.newLaptop());
+    }
+
+    // the tables dropped by the doublings add up to about as much as the live one
+    long tableBytes = store.metrics().getIndexBytes();
+    assertTrue(direct.getMemoryUsed() - before < tableBytes + tableBytes / 2);
+    store.close();
+  }
+
+  @Test
+  public void metricsCountSavesAndScans() throws Exception {
+    OffHeapLaptopStore store = new OffHeapLaptopStore(4096, null);
+    Generator generator = new Generator();
+    Laptop laptop = generator.newLaptop();
+    store.save(laptop);
+    store.save(generator.newLaptop());
+    try {
+      store.save(laptop);
+      fail("expected AlreadyExistException");
+    } catch (AlreadyExistException expected) {
+    }
+    store.search(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build(), found -> { });
+
+    LaptopStoreMetrics metrics = store.metrics();
+    assertEquals(2, metrics.getSaves());
+    assertEquals(1, metrics.getDuplicates());
+    assertEquals(2, metrics.getSize());
+    assertEquals(2, metrics.getRowsScanned());
+    assertEquals(2, metrics.getHits());
+    assertTrue(metrics.getIndexBytes() > 0);
+  }
+}
@@ -0,0 +1,198 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.AggregateLaptopsRequest;
+import com.kegmil.example.pcbook.pb.CreateLaptopRequest;
+import com.kegmil.example.pcbook.pb.CreateLaptopResponse;
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.LaptopServiceGrpc;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest;
+import com.kegmil.example.pcbook.pb.SearchLaptopResponse;
+import com.kegmil.example.pcbook.pb.WatchLaptopsRequest;
+import com.kegmil.example.pcbook.sample.Generator;
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.internal.testing.StreamRecorder;
+import io.grpc.testing.GrpcCleanupRule;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ServerExecutionModelTest {
+
+  @Rule
+  public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
+
+  private LaptopServer server;
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void perMethodPoolsServeCreatesAndSearches() throws Exception {
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    ManagedChannel channel = start(store, ServerExecutionModel.perMethod(2, 2, 16));
+    LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+
+    Generator generator = new Generator();
+    for (int i = 0; i < 100; i++) {
+      stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.newLaptop()).build());
+    }
+
+    Iterator<SearchLaptopResponse> responses = stub.searchLaptop(
+        SearchLaptopRequest.newBuilder().setFilter(Filter.newBuilder().setMaxPriceUsd(10000)).build());
+    int found = 0;
+    while (responses.hasNext()) {
+      responses.next();
+      found++;
+    }
+    assertEquals(100, found);
+  }
+
+  @Test
+  public void boundedModelShedsCallsThatDoNotFit() throws Exception {
+    CountDownLatch saving = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    LaptopStore store = new InMemoryLaptopStore() {
+      @Override
+      public void save(UUID id, Laptop laptop) throws Exception {
+        saving.countDown();
+        release.await();
+        super.save(id, laptop);
+      }
+    };
+    ManagedChannel channel = start(store, ServerExecutionModel.bounded(1, 1));
+    LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+    Generator generator = new Generator();
+
+    // the first call takes the only thread, the second the only queue slot
+    StreamRecorder<CreateLaptopResponse> first = StreamRecorder.create();
+    stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.newLaptop()).build(), first);
+    assertTrue(saving.await(5, TimeUnit.SECONDS));
+    StreamRecorder<CreateLaptopResponse> second = StreamRecorder.create();
+    stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.newLaptop()).build(), second);
+
+    try {
+      LaptopServiceGrpc.newBlockingStub(channel)
+          .createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.newLaptop()).build());
+      fail("expected RESOURCE_EXHAUSTED");
+    } catch (StatusRuntimeException e) {
+      assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+    }
+
+    release.countDown();
+    assertTrue(first.awaitCompletion(5, TimeUnit.SECONDS));
+    assertTrue(second.awaitCompletion(5, TimeUnit.SECONDS));
+    assertNull(first.getError());
+    assertNull(second.getError());
+  }
+
+  @Test
+  public void lanesShedCallsAtAdmissionAndRunHandlersOffTheTransport() throws Exception {
+    CountDownLatch saving = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Set<String> threads = ConcurrentHashMap.newKeySet();
+    LaptopStore store = new InMemoryLaptopStore() {
+      @Override
+      public void save(UUID id, Laptop laptop) throws Exception {
+        threads.add(Thread.currentThread().getName());
+        saving.countDown();
+        release.await();
+        super.save(id, laptop);
+      }
+    };
+    ExecutorService pool = Executors.newSingleThreadExecutor(r -> new Thread(r, "laptop-lane"));
+    try {
+      ExecutorHandoffInterceptor.Lane lane = new ExecutorHandoffInterceptor.Lane(pool, 1);
+      String serverName = InProcessServerBuilder.generateName();
+      grpcCleanup.register(InProcessServerBuilder.forName(serverName)
+          .directExecutor()
+          .addService(ServerInterceptors.intercept(new LaptopService(store),
+              new ExecutorHandoffInterceptor(method -> lane)))
+          .build()
+          .start());
+      ManagedChannel channel = grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build());
+      Generator generator = new Generator();
+
+      // the only admitted call holds the lane, so the next one is shed before it runs anything
+      StreamRecorder<CreateLaptopResponse> first = StreamRecorder.create();
+      LaptopServiceGrpc.newStub(channel)
+          .createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.newLaptop()).build(), first);
+      assertTrue(saving.await(5, TimeUnit.SECONDS));
+      LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+      try {
+        stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.newLaptop()).build());
+        fail("expected RESOURCE_EXHAUSTED");
+      } catch (StatusRuntimeException e) {
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+      }
+
+      // a call that is closed gives its slot back
+      release.countDown();
+      assertTrue(first.awaitCompletion(5, TimeUnit.SECONDS));
+      assertNull(first.getError());
+      Laptop laptop = generator.newLaptop();
+      assertEquals(laptop.getId(),
+          stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build()).getId());
+      assertEquals(Collections.singleton("laptop-lane"), threads);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void perMethodRoutesAggregatesAndWatchesOutOfTheSearchLane() throws Exception {
+    InMemoryLaptopStore store = new InMemoryLaptopStore();
+    // one search slot, which an open watch or an aggregation must not take
+    ManagedChannel channel = start(store, ServerExecutionModel.perMethod(1, 1, 1));
+    Context.CancellableContext watching = Context.current().withCancellation();
+    try {
+      watching.run(() -> LaptopServiceGrpc.newStub(channel).watchLaptops(
+          WatchLaptopsRequest.newBuilder().setFilter(Filter.newBuilder().setMaxPriceUsd(10000)).build(),
+          StreamRecorder.create()));
+
+      LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+      stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(new Generator().newLaptop()).build());
+      assertEquals(1, stub.aggregateLaptops(AggregateLaptopsRequest.newBuilder()
+          .setFilter(Filter.newBuilder().setMaxPriceUsd(10000)).build()).getCount());
+      Iterator<SearchLaptopResponse> responses = stub.searchLaptop(
+          SearchLaptopRequest.newBuilder().setFilter(Filter.newBuilder().setMaxPriceUsd(10000)).build());
+      int found = 0;
+      while (responses.hasNext()) {
+        responses.next();
+        found++;
+      }
+      assertEquals(1, found);
+    } finally {
+      watching.cancel(null);
+    }
+  }
+
+  private ManagedChannel start(LaptopStore store, ServerExecutionModel executionModel) throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    server = new LaptopServer(InProcessServerBuilder.forName(serverName), 0, store, executionModel);
+    server.start();
+    return grpcCleanup.register(InProcessChannelBuilder.forName(serverName).build());
+  }
+}
@@ -0,0 +1,172 @@
+package com.kegmil.example.pcbook.service;
+
+import com.kegmil.example.pcbook.pb.Filter;
+import com.kegmil.example.pcbook.pb.Laptop;
+import com.kegmil.example.pcbook.pb.Memory;
+import com.kegmil.example.pcbook.pb.SearchLaptopRequest.OrderBy;
+import com.kegmil.example.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertPagesAreOrdered;
+import static com.kegmil.example.pcbook.service.InMemoryLaptopStoreTest.assertSearchIsExact;
+import static org.junit.Assert.*;
+
+public class ShardedLaptopStoreTest {
+
+  private static final Filter FILTER = Filter.newBuilder()
+      .setMaxPriceUsd(2000)
+      .setMinCpuCores(4)
+      .setMinCpuGhz(2.5)
+      .setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE))
+      .build();
+
+  @Test
+  public void parallelSearchAcrossShards() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertSearchIsExact(new ShardedLaptopStore(8, 0, pool, InMemoryLaptopStore::new), FILTER);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void parallelPagesMergeTheShardPages() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertPagesAreOrdered(new ShardedLaptopStore(8, 0, pool, IndexedLaptopStore::new), FILTER,
+          new LaptopOrdering(OrderBy.CPU_GHZ, false));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void smallCatalogStaysOnTheCallerThread() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    pool.shutdown();
+    // a shut down pool rejects tasks, so this only passes if search never submits any
+    assertSearchIsExact(new ShardedLaptopStore(8, Integer.MAX_VALUE, pool, InMemoryLaptopStore::new), FILTER);
+  }
+
+  @Test
+  public void laptopsTheShardsAlreadyHoldCountTowardsTheThreshold() throws Exception {
+    // like durable shards that recovered their laptops on startup
+    Generator generator = new Generator();
+    Iterator<InMemoryLaptopStore> recovered = Stream.generate(() -> {
+      InMemoryLaptopStore shard = new InMemoryLaptopStore();
+      for (int i = 0; i < 10; i++) {
+        try {
+          shard.save(generator.newLaptop());
+        } catch (Exception e) {
+          throw new AssertionError(e);
+        }
+      }
+      return shard;
+    }).limit(4).iterator();
+
+    ForkJoinPool pool = new ForkJoinPool(1);
+    pool.shutdown();
+    ShardedLaptopStore store = new ShardedLaptopStore(4, 40, pool, recovered::next);
+    assertEquals(40, store.count());
+    try {
+      store.cursor(FILTER);
+      fail("a catalog at the threshold must be scanned on the pool");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void cursorReturnsEmptyPagesWhileShardsScanAndStopsWhenCancelled() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger scans = new AtomicInteger();
+    Laptop match = new Generator().newLaptop();
+    // every shard finds one laptop per scan, and its first scan waits to be released
+    Supplier<LaptopStore> slowShard = () -> new LaptopStore() {
+      @Override
+      public void save(Laptop laptop) {
+      }
+
+      @Override
+      public Laptop find(String id) {
+        return null;
+      }
+
+      @Override
+      public void search(Filter filter, LaptopStream stream) {
+      }
+
+      @Override
+      public LaptopCursor cursor(Filter filter) {
+        return (max, stream) -> {
+          scans.incrementAndGet();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          stream.send(match);
+          return true;
+        };
+      }
+    };
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ShardedLaptopStore store = new ShardedLaptopStore(4, 0, pool, slowShard);
+      LaptopCursor cursor = store.cursor(FILTER);
+      List<Laptop> sent = new ArrayList<>();
+      long start = System.nanoTime();
+      assertTrue(cursor.next(10, sent::add));
+      assertTrue(sent.isEmpty());
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+      // the scans never end on their own, so only the cancel stops them being rescheduled
+      cursor.cancel();
+      release.countDown();
+      assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+      assertEquals(4, scans.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void cursorScansAheadThroughSmallBuffers() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ShardedLaptopStore store = new ShardedLaptopStore(4, 0, 8, pool, InMemoryLaptopStore::new);
+      Generator generator = new Generator();
+      Set<String> expected = new HashSet<>();
+      for (int i = 0; i < 1000; i++) {
+        Laptop laptop = generator.newLaptop();
+        store.save(laptop);
+        expected.add(laptop.getId());
+      }
+
+      // pages smaller and larger than a shard's buffer, so scans are parked and rescheduled
+      Set<String> found = new HashSet<>();
+      LaptopCursor cursor = store.cursor(Filter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build());
+      int page = 0;
+      while (cursor.next(page++ % 2 == 0 ? 3 : 50, laptop -> assertTrue(found.add(laptop.getId())))) {
+      }
+      assertEquals(expected, found);
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
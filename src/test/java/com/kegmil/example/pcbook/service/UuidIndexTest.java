@@ -0,0 +1,28 @@
+package com.kegmil.example.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class UuidIndexTest {
+
+  @Test
+  public void getReturnsWhatWasPutAcrossResizes() {
+    UuidIndex index = new UuidIndex();
+    UUID[] ids = new UUID[100000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = UUID.randomUUID();
+      index.put(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits(), i);
+    }
+
+    assertEquals(ids.length, index.size());
+    for (int i = 0; i < ids.length; i++) {
+      assertEquals(i, index.get(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits()));
+    }
+
+    UUID missing = UUID.randomUUID();
+    assertEquals(-1, index.get(missing.getMostSignificantBits(), missing.getLeastSignificantBits()));
+  }
+}